@@ -0,0 +1,104 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper;
+
+import io.riddles.matchwrapper.io.IOPlayer;
+import io.riddles.matchwrapper.io.StandInProcess;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * EngineAPIBenchmark class
+ *
+ * Measures EngineAPI.handle for the engine commands that don't wait
+ * for a bot, with bots that discard their input.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EngineAPIBenchmark {
+
+    private static final int BOT_COUNT = 4;
+
+    private String largeSend;
+    private ArrayList<IOPlayer> bots;
+    private EngineAPI api;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        MatchContext context = new MatchContext();
+        StringBuilder field = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            field.append(i % 3).append(',');
+        }
+
+        this.largeSend = "bot 0 send update game field " + field;
+        this.bots = new ArrayList<>();
+        for (int i = 0; i < BOT_COUNT; i++) {
+            IOPlayer bot = new IOPlayer(StandInProcess.sink(), i, context);
+            bot.run();
+            this.bots.add(bot);
+        }
+
+        this.api = new EngineAPI(context, null, this.bots);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        this.bots.forEach(IOPlayer::finish);
+    }
+
+    @Benchmark
+    public void sendSmall() throws IOException {
+        this.api.handle("bot 1 send update player1 points 10");
+    }
+
+    @Benchmark
+    public void sendLarge() throws IOException {
+        this.api.handle(this.largeSend);
+    }
+
+    @Benchmark
+    public void sendAll() throws IOException {
+        this.api.handle("bot all send update game round 12");
+    }
+
+    @Benchmark
+    public void warning() throws IOException {
+        this.api.handle("bot 2 warning invalid move");
+    }
+}
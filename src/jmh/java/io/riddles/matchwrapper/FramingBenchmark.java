@@ -0,0 +1,145 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper;
+
+import io.riddles.matchwrapper.io.Frame;
+import io.riddles.matchwrapper.io.IOEngine;
+import io.riddles.matchwrapper.io.IOPlayer;
+import io.riddles.matchwrapper.io.StandInProcess;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FramingBenchmark class
+ *
+ * Measures a whole game of large state messages sent to all bots, from
+ * the engine's output until the bots' input, with lines and with frames.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class FramingBenchmark {
+
+    private static final int BOT_COUNT = 4;
+    private static final int MESSAGES = 20;
+
+    @Param({"100000", "1000000"})
+    private int stateSize;
+
+    private MatchContext context;
+    private byte[] lineOutput;
+    private byte[] frameOutput;
+    private IOEngine engine;
+    private ArrayList<IOPlayer> bots;
+
+    @Setup(Level.Trial)
+    public void createOutput() throws IOException {
+        this.context = new MatchContext(new JSONObject().put("suppressEngineIO", true));
+
+        char[] field = new char[this.stateSize];
+        Arrays.fill(field, '1');
+        String state = "update game field " + new String(field);
+        byte[] stateBytes = state.getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream lines = new ByteArrayOutputStream();
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        lines.write("ok\n".getBytes(StandardCharsets.UTF_8));
+        frames.write("ok framed\n".getBytes(StandardCharsets.UTF_8));
+
+        for (int i = 0; i < MESSAGES; i++) {
+            lines.write(("bot all send " + state + "\n").getBytes(StandardCharsets.UTF_8));
+
+            Frame frame = new Frame(Frame.SEND, Frame.ALL_BOTS, stateBytes);
+            frames.write(frame.getHeader());
+            frames.write(frame.getPayload());
+        }
+
+        Frame end = Frame.text("end");
+        lines.write("end\n".getBytes(StandardCharsets.UTF_8));
+        frames.write(end.getHeader());
+        frames.write(end.getPayload());
+
+        this.lineOutput = lines.toByteArray();
+        this.frameOutput = frames.toByteArray();
+    }
+
+    /**
+     * A new game is needed for every invocation, because the
+     * stand-in engine outputs the whole game at once
+     */
+    @Setup(Level.Invocation)
+    public void setup() {
+        this.bots = new ArrayList<>();
+        for (int i = 0; i < BOT_COUNT; i++) {
+            IOPlayer bot = new IOPlayer(StandInProcess.sink(), i, this.context);
+            bot.run();
+            this.bots.add(bot);
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDown() {
+        this.engine.finish();
+        this.bots.forEach(IOPlayer::finish);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void lines() throws IOException {
+        playGame(this.lineOutput, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void frames() throws IOException {
+        playGame(this.frameOutput, true);
+    }
+
+    private void playGame(byte[] output, boolean framing) throws IOException {
+        this.engine = new IOEngine(StandInProcess.afterInput(output), new JSONObject(), this.context);
+        this.engine.setFramingRequested(framing);
+        this.engine.run();
+
+        new EngineAPI(this.context, this.engine, this.bots).run();
+    }
+}
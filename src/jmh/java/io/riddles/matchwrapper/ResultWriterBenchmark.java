@@ -0,0 +1,112 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ResultWriterBenchmark class
+ *
+ * Measures writing the results of a large game, shaped like the
+ * output of MatchRunner.createResults, to a result file.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ResultWriterBenchmark {
+
+    private static final int PLAYERS = 4;
+    private static final int LOG_SIZE = 2000000;
+    private static final int GAME_SIZE = 10000000;
+    private static final int ROUNDS = 2000;
+
+    @Param({"results.json", "results.json.gz"})
+    public String fileName;
+
+    private Path directory;
+    private JSONObject results;
+
+    @Setup
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("result-writer-benchmark");
+
+        JSONArray players = new JSONArray();
+        for (int i = 0; i < PLAYERS; i++) {
+            JSONArray responseTimes = new JSONArray();
+            for (int round = 0; round < ROUNDS; round++) {
+                responseTimes.put(round % 50);
+            }
+
+            JSONObject player = new JSONObject();
+            player.put("log", createText("update game field 0,1,0,\"x\"\n", LOG_SIZE));
+            player.put("errors", createText("debug output\n", LOG_SIZE / 4));
+            player.put("responseTimes", responseTimes);
+            player.put("totalResponseTime", ROUNDS * 25);
+            players.put(player);
+        }
+
+        this.results = new JSONObject();
+        this.results.put("timeElapsed", 123456);
+        this.results.put("details", "{\"winner\":0}");
+        this.results.put("game", createText("{\"round\":1,\"field\":\"0,1,0\"},", GAME_SIZE));
+        this.results.put("players", players);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.directory.resolve(this.fileName));
+        Files.deleteIfExists(this.directory);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        new ResultWriter(this.directory.resolve(this.fileName).toString()).write(this.results);
+    }
+
+    private String createText(String line, int size) {
+        StringBuilder text = new StringBuilder(size + line.length());
+        while (text.length() < size) {
+            text.append(line);
+        }
+
+        return text.toString();
+    }
+}
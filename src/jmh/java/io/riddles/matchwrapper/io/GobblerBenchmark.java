@@ -0,0 +1,84 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import io.riddles.matchwrapper.MatchContext;
+
+/**
+ * GobblerBenchmark class
+ *
+ * Measures how fast lines an engine outputs are read by the
+ * InputStreamGobbler and handed to the engine's message queue.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GobblerBenchmark {
+
+    private static final int LINES = 10000;
+
+    private byte[] output;
+    private MatchContext context;
+
+    @Setup
+    public void setup() {
+        StringBuilder lines = new StringBuilder();
+        for (int i = 0; i < LINES; i++) {
+            lines.append(String.format("bot %d send update game field 0,0,1,0,1,1,0,0,0,1,%d\n", i % 4, i));
+        }
+
+        this.output = lines.toString().getBytes(StandardCharsets.UTF_8);
+
+        JSONObject config = new JSONObject();
+        config.put("suppressEngineIO", true);
+        this.context = new MatchContext(config);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void readLines(Blackhole blackhole) {
+        IOEngine engine = new IOEngine(StandInProcess.output(this.output), new JSONObject(), this.context);
+        engine.run();
+
+        for (int i = 0; i < LINES; i++) {
+            blackhole.consume(engine.getMessage());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+
+import io.riddles.matchwrapper.MatchContext;
+
+/**
+ * ReaderScaling class
+ *
+ * Starts 10, 100 and 1000 live bot processes (or the counts given as
+ * arguments), checks that every one of them is read by asking it
+ * something, and prints the number of JVM threads and the JVM's resident
+ * memory at each count. Run it from the jmh jar:
+ * java -cp build/libs/match-wrapper-*-jmh.jar io.riddles.matchwrapper.io.ReaderScaling
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class ReaderScaling {
+
+    public static void main(String[] args) throws Exception {
+        int[] counts = {10, 100, 1000};
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+
+        JSONObject config = new JSONObject();
+        config.put("maxMemory", 0);
+        MatchContext context = new MatchContext(config);
+
+        ArrayList<String> rows = new ArrayList<>();
+        rows.add(String.format("%10s %10s %10s %12s", "processes", "threads", "rss (MB)", "ask (ms)"));
+
+        for (int count : counts) {
+            ArrayList<IOPlayer> players = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                IOPlayer player = new IOPlayer(ErrorFileProcess.start(new ProcessBuilder("cat")), i, context);
+                player.setTimebank(context.getMaxTimeBank());
+                player.run();
+                players.add(player);
+            }
+
+            long start = System.nanoTime();
+            for (IOPlayer player : players) {
+                if (!player.ask("ping").startsWith("ping")) {
+                    throw new IllegalStateException("No response from bot " + player.getId());
+                }
+            }
+            double askTime = (System.nanoTime() - start) / 1e6 / count;
+
+            System.gc();
+            Thread.sleep(1000);
+
+            rows.add(String.format("%10d %10d %10d %12.3f", count,
+                    ManagementFactory.getThreadMXBean().getThreadCount(), getRss() / 1024, askTime));
+
+            players.forEach(IOPlayer::finish);
+        }
+
+        System.out.println();
+        rows.forEach(System.out::println);
+    }
+
+    /**
+     * @return Resident memory of this JVM in kB
+     */
+    private static long getRss() throws IOException {
+        for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+
+        return 0;
+    }
+}
@@ -0,0 +1,93 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import io.riddles.matchwrapper.MatchContext;
+
+/**
+ * RoundTripBenchmark class
+ *
+ * Measures sending a request to a bot and handing its response back,
+ * against an in-JVM echo process. The difference between the two
+ * benchmarks is the bookkeeping IOPlayer does for every response.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RoundTripBenchmark {
+
+    private static final long TIMEOUT = 10000L;
+
+    private IOPlayer player;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        JSONObject config = new JSONObject();
+        config.put("timebankMax", TIMEOUT);
+        config.put("maxMemory", 0);
+
+        this.player = new IOPlayer(StandInProcess.echo(), 0, new MatchContext(config));
+        this.player.run();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        this.player.finish();
+    }
+
+    /**
+     * IOWrapper.write followed by IOWrapper.getResponse
+     */
+    @Benchmark
+    public String writeAndGetResponse() {
+        long sequence = this.player.openRequest();
+        this.player.write("action move");
+
+        return this.player.getResponse(sequence, TIMEOUT);
+    }
+
+    /**
+     * IOPlayer.ask, including timebank, dump and response time bookkeeping
+     */
+    @Benchmark
+    public String playerAsk() throws IOException {
+        return this.player.ask("action move");
+    }
+}
@@ -0,0 +1,220 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * StandInProcess class
+ *
+ * In-JVM stand-in for an engine or bot process, so benchmarks measure
+ * the wrapper and not process startup or a real program's behaviour.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class StandInProcess extends Process {
+
+    private static final byte[] END = new byte[0];
+
+    private QueueInputStream stdout;
+    private QueueInputStream stderr;
+    private OutputStream stdin;
+    private volatile boolean alive;
+
+    private StandInProcess(boolean echo) {
+        this.stdout = new QueueInputStream();
+        this.stderr = new QueueInputStream();
+        this.stdin = echo ? new EchoOutputStream(this.stdout) : OutputStream.nullOutputStream();
+        this.alive = true;
+    }
+
+    /**
+     * @return A process that outputs every line that is written to it
+     */
+    public static StandInProcess echo() {
+        return new StandInProcess(true);
+    }
+
+    /**
+     * @return A process that ignores everything written to it
+     */
+    public static StandInProcess sink() {
+        return new StandInProcess(false);
+    }
+
+    /**
+     * @param output Everything the process outputs on stdout
+     * @return A process that outputs given data and then ends
+     */
+    public static StandInProcess output(byte[] output) {
+        StandInProcess process = new StandInProcess(false);
+        process.stdout.add(output);
+        process.stdout.add(END);
+        process.stderr.add(END);
+        process.alive = false;
+
+        return process;
+    }
+
+    /**
+     * @param output Everything the process outputs on stdout
+     * @return A process that outputs given data and then ends, as soon
+     * as the first line is written to it
+     */
+    public static StandInProcess afterInput(byte[] output) {
+        StandInProcess process = new StandInProcess(false);
+        process.stdin = new OutputStream() {
+            private boolean answered = false;
+
+            @Override
+            public void write(int b) {
+                if (b != '\n' || this.answered) return;
+
+                this.answered = true;
+                process.stdout.add(output);
+                process.stdout.add(END);
+                process.stderr.add(END);
+                process.alive = false;
+            }
+        };
+
+        return process;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.stdin;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return this.stdout;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return this.stderr;
+    }
+
+    @Override
+    public int waitFor() {
+        return 0;
+    }
+
+    @Override
+    public int exitValue() {
+        return 0;
+    }
+
+    @Override
+    public boolean isAlive() {
+        return this.alive;
+    }
+
+    @Override
+    public void destroy() {
+        this.alive = false;
+        this.stdout.add(END);
+        this.stderr.add(END);
+    }
+
+    /**
+     * Input stream that reads chunks from a queue, an empty chunk ends the stream
+     */
+    private static class QueueInputStream extends InputStream {
+
+        private LinkedBlockingQueue<byte[]> chunks = new LinkedBlockingQueue<>();
+        private byte[] current = null;
+        private int position = 0;
+
+        private void add(byte[] chunk) {
+            this.chunks.add(chunk);
+        }
+
+        @Override
+        public int available() {
+            if (this.current != null && this.position < this.current.length) {
+                return this.current.length - this.position;
+            }
+
+            byte[] next = this.chunks.peek();
+            return next == null ? 0 : next.length;
+        }
+
+        @Override
+        public int read() {
+            byte[] single = new byte[1];
+            return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (this.current == null || this.position >= this.current.length) {
+                if (this.current == END) return -1;
+
+                try {
+                    this.current = this.chunks.take();
+                } catch (InterruptedException ex) {
+                    return -1;
+                }
+                this.position = 0;
+
+                if (this.current == END) return -1;
+            }
+
+            int count = Math.min(length, this.current.length - this.position);
+            System.arraycopy(this.current, this.position, buffer, offset, count);
+            this.position += count;
+
+            return count;
+        }
+    }
+
+    /**
+     * Output stream that passes every complete line on to an input stream
+     */
+    private static class EchoOutputStream extends OutputStream {
+
+        private QueueInputStream target;
+        private ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+        private EchoOutputStream(QueueInputStream target) {
+            this.target = target;
+        }
+
+        @Override
+        public void write(int b) {
+            this.line.write(b);
+
+            if (b == '\n') {
+                this.target.add(this.line.toByteArray());
+                this.line.reset();
+            }
+        }
+
+        @Override
+        public void write(byte[] buffer, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                write(buffer[i]);
+            }
+        }
+    }
+}
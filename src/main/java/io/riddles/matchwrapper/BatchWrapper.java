@@ -0,0 +1,234 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BatchWrapper class
+ *
+ * Runs all matches and scenarios from a manifest in a single JVM,
+ * using a bounded pool of worker threads. The manifest is either a JSON
+ * array of wrapper configs, or one wrapper config per line. Each config
+ * is the same as the one given to the MatchWrapper for a single match,
+ * so each match still writes its own result file.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class BatchWrapper {
+
+    public static final String ARGUMENT = "--batch";
+    private static final String STDIN = "-";
+
+    private ArrayList<JSONObject> configs;
+    private int threads;
+
+    public BatchWrapper(ArrayList<JSONObject> configs, int threads) {
+        this.configs = configs;
+        this.threads = threads;
+    }
+
+    /**
+     * Creates a batch from the command line arguments that
+     * follow --batch: [manifest file or - for stdin] [threads]
+     *
+     * @param args Command line arguments
+     * @return The batch
+     * @throws IOException exception
+     */
+    public static BatchWrapper fromArguments(String[] args) throws IOException {
+        String manifest = args.length > 0 ? args[0] : STDIN;
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        if (args.length > 1) {
+            threads = Integer.parseInt(args[1]);
+        }
+
+        Reader reader = manifest.equals(STDIN)
+                ? new InputStreamReader(System.in)
+                : new FileReader(manifest);
+
+        ArrayList<JSONObject> configs;
+        try (BufferedReader bufferedReader = new BufferedReader(reader)) {
+            configs = readManifest(bufferedReader);
+        }
+
+        return new BatchWrapper(configs, threads);
+    }
+
+    /**
+     * Reads all wrapper configs from the manifest, every config
+     * is checked like a config given on the command line
+     *
+     * @param reader Reader of the manifest
+     * @return All configs in the manifest
+     * @throws IOException exception
+     */
+    private static ArrayList<JSONObject> readManifest(BufferedReader reader) throws IOException {
+        ArrayList<JSONObject> configs = new ArrayList<>();
+        ArrayList<String> lines = new ArrayList<>();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.trim().isEmpty()) {
+                lines.add(line);
+            }
+        }
+
+        if (!lines.isEmpty() && lines.get(0).trim().startsWith("[")) {
+            JSONArray array = new JSONArray(String.join("\n", lines));
+            for (int i = 0; i < array.length(); i++) {
+                configs.add(validateConfig(array.getJSONObject(i), i));
+            }
+
+            return configs;
+        }
+
+        for (int i = 0; i < lines.size(); i++) {
+            configs.add(validateConfig(new JSONObject(lines.get(i)), i));
+        }
+
+        return configs;
+    }
+
+    private static JSONObject validateConfig(JSONObject config, int index) {
+        try {
+            MatchWrapper.validateConfig(config);
+        } catch (RuntimeException ex) {
+            throw new RuntimeException(String.format("Manifest entry %d: %s", index + 1, ex.getMessage()), ex);
+        }
+
+        return config;
+    }
+
+    /**
+     * Runs all matches in the batch and prints a summary
+     *
+     * @return 0 if all matches ran successfully, 1 otherwise
+     */
+    public int run() {
+        int size = this.configs.size();
+        long[] submitTimes = new long[size];
+        long[] startTimes = new long[size];
+        long[] endTimes = new long[size];
+        ArrayList<Future<Integer>> futures = new ArrayList<>();
+
+        System.out.println(String.format(
+                "Running %d matches using %d threads...", size, this.threads));
+
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        long batchStart = System.nanoTime();
+
+        for (int i = 0; i < size; i++) {
+            final int index = i;
+            final JSONObject config = this.configs.get(i);
+
+            submitTimes[index] = System.nanoTime();
+            futures.add(executor.submit(() -> {
+                startTimes[index] = System.nanoTime();
+                try {
+                    return MatchWrapper.runMatch(config);
+                } finally {
+                    endTimes[index] = System.nanoTime();
+                }
+            }));
+        }
+
+        executor.shutdown();
+
+        int failed = 0;
+        for (int i = 0; i < size; i++) {
+            try {
+                if (futures.get(i).get() != 0) {
+                    failed++;
+                }
+            } catch (ExecutionException ex) {
+                System.err.println(String.format("Match %d failed: %s", i, ex.getCause()));
+                failed++;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                executor.shutdownNow();
+                return 1;
+            }
+        }
+
+        long batchTime = System.nanoTime() - batchStart;
+        printSummary(submitTimes, startTimes, endTimes, failed, batchTime);
+
+        return failed > 0 ? 1 : 0;
+    }
+
+    private void printSummary(long[] submitTimes, long[] startTimes, long[] endTimes,
+                              int failed, long batchTime) {
+        int size = submitTimes.length;
+        long[] queueWaits = new long[size];
+        long[] wallTimes = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            queueWaits[i] = TimeUnit.NANOSECONDS.toMillis(startTimes[i] - submitTimes[i]);
+            wallTimes[i] = TimeUnit.NANOSECONDS.toMillis(endTimes[i] - startTimes[i]);
+        }
+
+        Arrays.sort(queueWaits);
+        Arrays.sort(wallTimes);
+
+        double batchSeconds = batchTime / 1e9;
+
+        System.out.println("BATCH SUMMARY:\n");
+        System.out.println(String.format("Matches: %d (%d failed) using %d threads",
+                size, failed, this.threads));
+        System.out.println(String.format("Wall time: %dms",
+                TimeUnit.NANOSECONDS.toMillis(batchTime)));
+        System.out.println(String.format("Throughput: %.2f matches/sec",
+                batchSeconds > 0 ? size / batchSeconds : 0));
+        System.out.println(String.format("Queue wait: avg %dms, p50 %dms, p90 %dms, max %dms",
+                average(queueWaits), percentile(queueWaits, 50),
+                percentile(queueWaits, 90), percentile(queueWaits, 100)));
+        System.out.println(String.format("Match wall time: avg %dms, p50 %dms, p90 %dms, max %dms",
+                average(wallTimes), percentile(wallTimes, 50),
+                percentile(wallTimes, 90), percentile(wallTimes, 100)));
+        System.out.println("\nEND BATCH SUMMARY");
+    }
+
+    private long average(long[] values) {
+        if (values.length == 0) return 0;
+
+        return Arrays.stream(values).sum() / values.length;
+    }
+
+    private long percentile(long[] sortedValues, int percentile) {
+        if (sortedValues.length == 0) return 0;
+
+        int index = (int) Math.ceil(percentile / 100.0 * sortedValues.length) - 1;
+        return sortedValues[Math.max(index, 0)];
+    }
+}
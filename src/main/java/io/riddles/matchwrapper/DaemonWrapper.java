@@ -0,0 +1,417 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DaemonWrapper class
+ *
+ * Keeps a single JVM running that accepts matches and scenarios over a
+ * TCP port on localhost, so matches don't pay for starting the wrapper's
+ * JVM. Clients send one job per line: the same config as is given to the
+ * MatchWrapper, with an optional "id". Every line must carry the
+ * "token" the daemon writes to its token file on start, which only the
+ * user running the daemon can read. A connection that sends a line
+ * without the right token is closed. Jobs of all connections run on a
+ * bounded pool of worker threads, with a bounded queue in front of it. A
+ * job that doesn't fit in the queue is rejected right away. When a job is
+ * done, one line is sent back with its id, status, exit status and either
+ * its result file or, without a result file, the results themselves.
+ * The lines {"command": "status"} and {"command": "shutdown"} are
+ * answered with the counters of the daemon, the latter also stops it
+ * after all accepted jobs are done.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class DaemonWrapper {
+
+    public static final String ARGUMENT = "--daemon";
+    private static final String TOKEN_FILE_ARGUMENT = "--token-file";
+    private static final int DEFAULT_PORT = 7650;
+    private static final int TOKEN_BYTES = 32;
+    private static final int READ_TIMEOUT = 60000; // ms a connection without running jobs may be idle
+
+    private int port;
+    private int threads;
+    private int queueSize;
+    private Path tokenFile;
+    private byte[] token;
+    private ThreadPoolExecutor executor;
+    private ExecutorService connections;
+    private ServerSocket serverSocket;
+    private volatile boolean stopping;
+    private final AtomicLong accepted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+
+    public DaemonWrapper(int port, int threads, int queueSize, Path tokenFile) {
+        this.port = port;
+        this.threads = threads;
+        this.queueSize = queueSize;
+        this.tokenFile = tokenFile;
+    }
+
+    /**
+     * Creates a daemon from the command line arguments that follow
+     * --daemon: [port] [threads] [queue size] [--token-file path]
+     *
+     * @param args Command line arguments
+     * @return The daemon
+     */
+    public static DaemonWrapper fromArguments(String[] args) {
+        List<String> positional = new ArrayList<>();
+        Path tokenFile = null;
+
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals(TOKEN_FILE_ARGUMENT) && i + 1 < args.length) {
+                tokenFile = Paths.get(args[++i]);
+            } else {
+                positional.add(args[i]);
+            }
+        }
+
+        int port = positional.size() > 0 ? Integer.parseInt(positional.get(0)) : DEFAULT_PORT;
+        int threads = positional.size() > 1
+                ? Integer.parseInt(positional.get(1))
+                : Runtime.getRuntime().availableProcessors();
+        int queueSize = positional.size() > 2 ? Integer.parseInt(positional.get(2)) : threads * 4;
+
+        if (tokenFile == null) {
+            tokenFile = Paths.get(System.getProperty("user.home"), ".match-wrapper", "daemon-" + port + ".token");
+        }
+
+        return new DaemonWrapper(port, threads, queueSize, tokenFile);
+    }
+
+    /**
+     * Accepts connections until the daemon is shut down
+     *
+     * @return 0 when the daemon was shut down
+     * @throws IOException if the port can't be opened
+     */
+    public int run() throws IOException {
+        writeToken();
+
+        this.executor = new ThreadPoolExecutor(this.threads, this.threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(this.queueSize, 1)));
+        this.connections = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "daemon-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.serverSocket = new ServerSocket(this.port, 50, InetAddress.getLoopbackAddress());
+        System.out.println(String.format("Accepting jobs on %s:%d using %d threads, queue size %d, token in %s",
+                InetAddress.getLoopbackAddress().getHostAddress(), this.serverSocket.getLocalPort(),
+                this.threads, this.queueSize, this.tokenFile));
+
+        try {
+            while (!this.stopping) {
+                Socket socket = this.serverSocket.accept();
+                this.connections.execute(() -> serve(socket));
+            }
+        } catch (SocketException ex) {
+            if (!this.stopping) throw ex;
+        }
+
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        Files.deleteIfExists(this.tokenFile);
+
+        System.out.println(String.format("Daemon stopped after %d jobs", this.completed.get()));
+        return 0;
+    }
+
+    /**
+     * Generates a new random token and writes it to the token file,
+     * readable only by the user running the daemon
+     *
+     * @throws IOException if the token file can't be written
+     */
+    private void writeToken() throws IOException {
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+
+        StringBuilder hex = new StringBuilder();
+        for (byte value : random) {
+            hex.append(String.format("%02x", value));
+        }
+        this.token = hex.toString().getBytes(StandardCharsets.UTF_8);
+
+        Path directory = this.tokenFile.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        Files.deleteIfExists(this.tokenFile);
+
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            Files.createFile(this.tokenFile,
+                    PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } else {
+            Files.createFile(this.tokenFile);
+        }
+
+        Files.write(this.tokenFile, this.token);
+    }
+
+    private boolean hasToken(JSONObject config) {
+        String token = config.optString("token", null);
+
+        return token != null && MessageDigest.isEqual(this.token, token.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Reads jobs from a connection until the client closes it, and
+     * keeps it open until the replies to all its jobs are sent
+     *
+     * @param socket The connection
+     */
+    private void serve(Socket socket) {
+        try (Socket client = socket;
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8));
+             Writer writer = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8)) {
+
+            client.setSoTimeout(READ_TIMEOUT);
+            Connection connection = new Connection(writer);
+
+            String line;
+            while ((line = readLine(reader, connection)) != null) {
+                if (!line.trim().isEmpty() && !handleLine(line, connection)) {
+                    break; // unauthenticated, drop the connection
+                }
+            }
+
+            connection.awaitJobs();
+        } catch (IOException ex) {
+            System.err.println("Connection failed: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Reads the next line of a connection. A client waiting for its jobs
+     * may stay silent, without jobs it's dropped after READ_TIMEOUT.
+     *
+     * @return The line, null if the connection is closed or idle
+     */
+    private String readLine(BufferedReader reader, Connection connection) throws IOException {
+        while (true) {
+            try {
+                return reader.readLine();
+            } catch (SocketTimeoutException ex) {
+                if (!connection.hasJobs()) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return False if the line doesn't carry the daemon's token
+     */
+    private boolean handleLine(String line, Connection connection) {
+        JSONObject config;
+        try {
+            config = new JSONObject(line);
+        } catch (JSONException ex) {
+            return false;
+        }
+
+        if (!hasToken(config)) {
+            return false;
+        }
+        config.remove("token");
+
+        Object id = config.opt("id");
+
+        if (config.has("command")) {
+            handleCommand(config.getString("command"), id, connection);
+            return true;
+        }
+
+        if (this.stopping) {
+            this.rejected.incrementAndGet();
+            connection.reply(createReply(id, "rejected").put("error", "Daemon is shutting down"));
+            return true;
+        }
+
+        connection.addJob();
+        try {
+            this.executor.execute(() -> runJob(config, id, connection));
+            this.accepted.incrementAndGet();
+        } catch (RejectedExecutionException ex) {
+            this.rejected.incrementAndGet();
+            connection.reply(createReply(id, "rejected").put("error", "Job queue is full"));
+            connection.finishJob();
+        }
+
+        return true;
+    }
+
+    private void handleCommand(String command, Object id, Connection connection) {
+        switch (command) {
+            case "status":
+                connection.reply(createStatus(id));
+                break;
+            case "shutdown":
+                this.stopping = true;
+                connection.reply(createStatus(id));
+                try {
+                    this.serverSocket.close();
+                } catch (IOException ignored) {}
+                break;
+            default:
+                connection.reply(createReply(id, "error").put("error", "Unknown command: " + command));
+        }
+    }
+
+    private void runJob(JSONObject config, Object id, Connection connection) {
+        JSONObject reply = createReply(id, "error").put("error", "Job failed");
+
+        try {
+            MatchResult result = new MatchSession(config).call();
+            JSONObject wrapperConfig = config.optJSONObject("wrapper");
+            String resultFile = wrapperConfig != null ? wrapperConfig.optString("resultFile", null) : null;
+
+            reply = createReply(id, "ok");
+            reply.put("exitStatus", result.getExitStatus());
+            reply.put("timeElapsed", result.getTimeElapsed());
+
+            if (resultFile != null) {
+                reply.put("resultFile", resultFile);
+            } else {
+                reply.put("results", result.getResults());
+            }
+
+            this.completed.incrementAndGet();
+        } catch (Exception ex) {
+            reply = createReply(id, "error").put("error", String.valueOf(ex.getMessage()));
+            this.failed.incrementAndGet();
+        } catch (Error ex) {
+            reply = createReply(id, "error").put("error", String.valueOf(ex));
+            this.failed.incrementAndGet();
+            throw ex;
+        } finally {
+            // always, or the connection waits for this job forever
+            connection.reply(reply);
+            connection.finishJob();
+        }
+    }
+
+    private JSONObject createReply(Object id, String status) {
+        JSONObject reply = new JSONObject();
+        if (id != null) {
+            reply.put("id", id);
+        }
+        reply.put("status", status);
+
+        return reply;
+    }
+
+    private JSONObject createStatus(Object id) {
+        JSONObject status = createReply(id, "ok");
+        status.put("running", this.executor.getActiveCount());
+        status.put("queued", this.executor.getQueue().size());
+        status.put("accepted", this.accepted.get());
+        status.put("rejected", this.rejected.get());
+        status.put("completed", this.completed.get());
+        status.put("failed", this.failed.get());
+        status.put("stopping", this.stopping);
+
+        return status;
+    }
+
+    /**
+     * A client connection, to which the replies of jobs running
+     * on different threads are written one line at a time
+     */
+    private static class Connection {
+
+        private final Writer writer;
+        private int pendingJobs; // jobs of this connection that are not done yet
+
+        private Connection(Writer writer) {
+            this.writer = writer;
+        }
+
+        private synchronized void reply(JSONObject reply) {
+            try {
+                this.writer.write(reply.toString());
+                this.writer.write('\n');
+                this.writer.flush();
+            } catch (IOException ignored) {} // the client has gone, result files are still saved
+        }
+
+        private synchronized boolean hasJobs() {
+            return this.pendingJobs > 0;
+        }
+
+        private synchronized void addJob() {
+            this.pendingJobs++;
+        }
+
+        private synchronized void finishJob() {
+            this.pendingJobs--;
+            notifyAll();
+        }
+
+        private synchronized void awaitJobs() throws InterruptedException {
+            while (this.pendingJobs > 0) {
+                wait();
+            }
+        }
+    }
+}
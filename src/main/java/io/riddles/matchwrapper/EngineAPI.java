@@ -17,13 +17,13 @@
 
 package io.riddles.matchwrapper;
 
-import io.riddles.matchwrapper.io.IOEngine;
+import io.riddles.matchwrapper.io.Frame;
+import io.riddles.matchwrapper.io.EngineHandle;
 import io.riddles.matchwrapper.io.IOPlayer;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
 /**
  * EngineAPI class
@@ -35,16 +35,27 @@ import java.util.regex.Pattern;
  */
 public class EngineAPI {
 
-    private static final Pattern BOTNR_ASK = Pattern.compile("^bot (\\d+) ask (.*)");
-    private static final Pattern BOTNR_SEND = Pattern.compile("^bot (\\d+) send (.*)");
-    private static final Pattern BOTNR_WARNING = Pattern.compile("^bot (\\d+) warning (.*)");
-    private static final Pattern BOTALL_SEND = Pattern.compile("^bot all send (.*)");
-
-    private IOEngine engine;
+    private static final String BATCH = "batch ";
+    private static final String BOT = "bot ";
+    private static final String ALL = "all ";
+    private static final String ASK = "ask ";
+    private static final String SEND = "send ";
+    private static final String WARNING = "warning ";
+    private static final int MAX_BOT_INDEX = 1000000;
+
+    // bot targets of a command
+    private static final int TARGET_SINGLE = 0;
+    private static final int TARGET_LIST = 1;
+    private static final int TARGET_ALL = 2;
+
+    private MatchContext context;
+    private EngineHandle engine;
     private ArrayList<IOPlayer> bots;
     private boolean ended;
+    private StringBuilder batchResponses; // responses to the asks in the current batch, null if none
 
-    public EngineAPI(IOEngine engine, ArrayList<IOPlayer> bots) {
+    public EngineAPI(MatchContext context, EngineHandle engine, ArrayList<IOPlayer> bots) {
+        this.context = context;
         this.engine = engine;
         this.bots = bots;
         this.ended = false;
@@ -59,8 +70,6 @@ public class EngineAPI {
      */
     public void handle(String message) throws IOException {
 
-        Matcher m;
-
         if (message == null || message.length() <= 0 || message.equals("end")) {
             this.ended = true;
             return;
@@ -69,20 +78,166 @@ public class EngineAPI {
         // TODO: Make it possible to toggle verbose mode
         // System.out.println(String.format("Received message: '%s'", message));
 
-        if ((m = BOTNR_ASK.matcher(message)).find()) {
-            this.engine.send(botAsk(Integer.parseInt(m.group(1)), m.group(2)));
-        } else if ((m = BOTNR_SEND.matcher(message)).find()) {
-            botSend(Integer.parseInt(m.group(1)), m.group(2));
-        } else if ((m = BOTNR_WARNING.matcher(message)).find()) {
-            botWarning(Integer.parseInt(m.group(1)), m.group(2));
-        } else if ((m = BOTALL_SEND.matcher(message)).find()) {
-            botBroadcast(m.group(1));
-        } else if (message.equals("ok")) {
-            // do nothing, continue
+        if (message.startsWith(BOT) && handleBotCommand(message)) {
+            return;
+        }
+
+        if (message.startsWith(BATCH) && this.batchResponses == null && handleBatch(message)) {
+            return;
+        }
+
+        if (message.equals("ok")) {
+            return; // do nothing, continue
+        }
+
+        System.err.println(String.format("'%s' did not match any action", message));
+        this.ended = true;
+    }
+
+    /**
+     * Executes a "batch [n]" command: the next n messages from the engine
+     * are handled as one. Writes to the bots are flushed once at the end of
+     * the batch, except for asks, and the responses to all asks in the batch
+     * are sent to the engine in a single write.
+     *
+     * @param message Input from the engine, starting with "batch "
+     * @return False if the message is not a valid batch command
+     * @throws IOException exception
+     */
+    private boolean handleBatch(String message) throws IOException {
+        int count;
+        try {
+            count = Integer.parseInt(message.substring(BATCH.length()));
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+
+        if (count < 0) return false;
+
+        this.batchResponses = new StringBuilder();
+        for (IOPlayer bot : this.bots) {
+            bot.holdWrites();
+        }
+
+        try {
+            for (int i = 0; i < count && !this.ended; i++) {
+                if (this.engine.isFramed()) {
+                    handleFrame(this.engine.getFrame());
+                } else {
+                    handle(this.engine.getMessage());
+                }
+            }
+        } finally {
+            for (IOPlayer bot : this.bots) {
+                bot.flushWrites();
+            }
+        }
+
+        String responses = this.batchResponses.toString();
+        this.batchResponses = null;
+
+        if (!this.ended && !responses.isEmpty()) {
+            this.engine.send(responses);
+        }
+
+        return true;
+    }
+
+    /**
+     * Sends responses of bots to the engine, or keeps them until the end
+     * of the batch if there is one
+     *
+     * @param responses Responses to send
+     */
+    private void respond(String responses) {
+        if (this.batchResponses == null) {
+            this.engine.send(responses);
+            return;
+        }
+
+        if (this.batchResponses.length() > 0) {
+            this.batchResponses.append('\n');
+        }
+        this.batchResponses.append(responses);
+    }
+
+    /**
+     * Parses and executes a "bot [id|id,id,...|all] [verb] [payload]" command
+     * in a single pass over the message. The payload is passed on as an offset
+     * in the message, so large payloads are never copied.
+     *
+     * @param message Input from the engine, starting with "bot "
+     * @return False if the message is not a valid bot command
+     * @throws IOException exception
+     */
+    private boolean handleBotCommand(String message) throws IOException {
+        int length = message.length();
+        int index = BOT.length();
+        int targetStart = index;
+        int target = TARGET_SINGLE;
+        int botIndex = 0;
+
+        if (message.startsWith(ALL, index)) {
+            target = TARGET_ALL;
+            index += ALL.length();
         } else {
-            System.err.println(String.format("'%s' did not match any action", message));
-            this.ended = true;
+            int digits = 0;
+
+            for (; index < length; index++) {
+                char c = message.charAt(index);
+
+                if (c >= '0' && c <= '9' && botIndex <= MAX_BOT_INDEX) {
+                    botIndex = botIndex * 10 + (c - '0');
+                    digits++;
+                } else if (c == ',' && digits > 0) {
+                    target = TARGET_LIST;
+                    botIndex = 0;
+                    digits = 0;
+                } else {
+                    break;
+                }
+            }
+
+            if (digits == 0 || index >= length || message.charAt(index) != ' ') {
+                return false;
+            }
+            index++;
         }
+
+        int targetEnd = index - 1;
+
+        if (message.startsWith(ASK, index)) {
+            int payloadStart = index + ASK.length();
+
+            if (target == TARGET_SINGLE) {
+                respond(botAsk(botIndex, message, payloadStart));
+            } else if (target == TARGET_LIST) {
+                respond(botAskMultiple(parseBotList(message, targetStart, targetEnd), message, payloadStart));
+            } else {
+                respond(botAskMultiple(allBotIndices(), message, payloadStart));
+            }
+
+            return true;
+        }
+
+        if (message.startsWith(SEND, index) && target != TARGET_LIST) {
+            int payloadStart = index + SEND.length();
+
+            if (target == TARGET_SINGLE) {
+                botSend(botIndex, message, payloadStart);
+            } else {
+                botBroadcast(message, payloadStart);
+            }
+
+            return true;
+        }
+
+        if (message.startsWith(WARNING, index) && target == TARGET_SINGLE) {
+            botWarning(botIndex, message, index + WARNING.length());
+            return true;
+        }
+
+        return false;
     }
 
     /**
@@ -91,10 +246,17 @@ public class EngineAPI {
     public void run() throws IOException {
 
         // Have engine set up game settings
-        if (!askAndExpect("initialize", "ok")) {
+        String initialized = this.engine.initialize();
+        if (!initialized.equals("ok")) {
+            System.err.println(String.format(
+                    "Unexpected response: %s\n to message: initialize", initialized));
             return;
         }
 
+        if (this.engine.isFramed()) {
+            System.out.println("Engine uses frames.");
+        }
+
         System.out.println("Engine initialized. Sending settings to engine..");
         this.engine.sendPlayers(bots);
         this.engine.sendConfiguration();
@@ -108,7 +270,62 @@ public class EngineAPI {
         System.out.println("Engine Started. Playing game...");
 
         while (!this.ended) {
-            handle(this.engine.getMessage());
+            if (this.engine.isFramed()) {
+                handleFrame(this.engine.getFrame());
+            } else {
+                handle(this.engine.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Handles a frame from the engine. The payload of a send frame is
+     * passed on to the bots without being parsed or copied.
+     *
+     * @param frame Frame from the engine, null if there is none
+     * @throws IOException exception
+     */
+    public void handleFrame(Frame frame) throws IOException {
+        if (frame == null) {
+            this.ended = true;
+            return;
+        }
+
+        int botId = frame.getBotId();
+        boolean all = botId == Frame.ALL_BOTS;
+
+        if (frame.getType() != Frame.TEXT && !all && (botId < 0 || botId >= this.bots.size())) {
+            System.err.println(String.format("'%s' has an invalid bot id", frame));
+            this.ended = true;
+            return;
+        }
+
+        switch (frame.getType()) {
+            case Frame.SEND:
+                if (all) {
+                    for (IOPlayer bot : this.bots)
+                        bot.send(frame);
+                } else {
+                    this.bots.get(botId).send(frame);
+                }
+                break;
+            case Frame.ASK:
+                if (all) {
+                    respond(botAskMultiple(allBotIndices(), frame.getText(), 0));
+                } else {
+                    respond(botAsk(botId, frame.getText(), 0));
+                }
+                break;
+            case Frame.WARNING:
+                if (all) {
+                    for (IOPlayer bot : this.bots)
+                        bot.addToDump(frame.getText());
+                } else {
+                    this.bots.get(botId).addToDump(frame.getText());
+                }
+                break;
+            default:
+                handle(frame.getText());
         }
     }
 
@@ -130,8 +347,8 @@ public class EngineAPI {
         botBroadcast(String.format("settings player_names %s", playerNames));
         for (IOPlayer bot : this.bots) {
             bot.send(String.format("settings your_bot player%d", bot.getId()));
-            bot.send(String.format("settings timebank %d", MatchWrapper.MAX_TIME_BANK));
-            bot.send(String.format("settings time_per_move %d", MatchWrapper.TIME_PER_MOVE));
+            bot.send(String.format("settings timebank %d", this.context.getMaxTimeBank()));
+            bot.send(String.format("settings time_per_move %d", this.context.getTimePerMove()));
         }
     }
 
@@ -139,27 +356,47 @@ public class EngineAPI {
      * Asks the engine for the details of the game
      * i.e. winner, etc.
      *
-     * @return Detail string
+     * @return Detail string, or the PayloadFile with the details
      */
-    public String askGameDetails() {
-        try {
-            return this.engine.ask("details");
-        } catch (IOException ex) {
-            System.err.println(ex);
-        }
-
-        return "";
+    public Object askGameDetails() {
+        return askPayload("details");
     }
 
     /**
      * Asks the engine for the game file for the
      * visualizer
      *
-     * @return The played game in string representation
+     * @return The played game in string representation, or the PayloadFile with the game
      */
-    public String askPlayedGame() {
+    public Object askPlayedGame() {
+        return askPayload("game");
+    }
+
+    /**
+     * Asks the engine for a result payload. If the engine uses payload files
+     * and there is a result file to stream them into, the path of a new file
+     * is added to the command and the engine writes the payload there before
+     * answering. If the engine leaves the file empty, its answer is used as
+     * the payload.
+     *
+     * @param command Command for the payload
+     * @return The payload string, or the PayloadFile with the payload
+     */
+    private Object askPayload(String command) {
         try {
-            return this.engine.ask("game");
+            if (!this.engine.usesPayloadFiles() || this.context.getResultFilePath() == null) {
+                return this.engine.ask(command);
+            }
+
+            PayloadFile payload = PayloadFile.create(this.context.getResultFilePath(), command);
+            String response = this.engine.ask(String.format("%s %s", command, payload.getPath()));
+
+            if (payload.isWritten()) {
+                return payload;
+            }
+
+            payload.delete();
+            return response;
         } catch (IOException ex) {
             System.err.println(ex);
         }
@@ -172,65 +409,144 @@ public class EngineAPI {
      * Asks something from given bot and waits for response.
      *
      * @param botIndex Bot to ask
-     * @param message  Message to send
+     * @param message  Message containing the text to send
+     * @param offset   Index of the first character of the text to send
      * @return The response to send to the engine
      * @throws IOException
      */
-    private String botAsk(int botIndex, String message) throws IOException {
+    private String botAsk(int botIndex, String message, int offset) throws IOException {
         IOPlayer bot = bots.get(botIndex);
-        return String.format("bot %d %s", botIndex, bot.ask(message));
+        String response = bot.getResponse(bot.sendRequest(message, offset, this.engine.getMessageTime()));
+
+        return String.format("bot %d %s", botIndex, response);
     }
 
     /**
-     * Sends message to a given bot
+     * Blocking method
+     * Asks something from multiple bots at once and waits for all responses.
+     * All bots get the message before any response is awaited, so the bots
+     * think at the same time and each bot's timebank runs independently.
+     *
+     * @param botIndices Bots to ask
+     * @param message    Message containing the text to send
+     * @param offset     Index of the first character of the text to send
+     * @return The responses to send to the engine, one line per bot
+     */
+    private String botAskMultiple(int[] botIndices, String message, int offset) {
+        long[] sequences = new long[botIndices.length];
+        long dispatchStart = this.engine.getMessageTime();
+
+        for (int i = 0; i < botIndices.length; i++) {
+            sequences[i] = bots.get(botIndices[i]).sendRequest(message, offset, dispatchStart);
+        }
+
+        StringBuilder responses = new StringBuilder();
+        String connector = "";
+        for (int i = 0; i < botIndices.length; i++) {
+            int botIndex = botIndices[i];
+            String response = bots.get(botIndex).getResponse(sequences[i]);
+
+            responses.append(String.format("%sbot %d %s", connector, botIndex, response));
+            connector = "\n";
+        }
+
+        return responses.toString();
+    }
+
+    /**
+     * @param message Message containing a comma separated list of bot indices
+     * @param start   Index of the first character of the list
+     * @param end     Index after the last character of the list
+     * @return The bot indices in the list, without repeated indices, as a
+     * bot can't have more than one request open
+     */
+    private int[] parseBotList(String message, int start, int end) {
+        int count = 1;
+        for (int i = start; i < end; i++) {
+            if (message.charAt(i) == ',') count++;
+        }
+
+        int[] botIndices = new int[count];
+        int current = 0;
+        for (int i = start; i < end; i++) {
+            char c = message.charAt(i);
+
+            if (c == ',') {
+                current++;
+            } else {
+                botIndices[current] = botIndices[current] * 10 + (c - '0');
+            }
+        }
+
+        int unique = 0;
+        for (int i = 0; i < count; i++) {
+            boolean repeated = false;
+            for (int j = 0; j < unique && !repeated; j++) {
+                repeated = botIndices[j] == botIndices[i];
+            }
+
+            if (!repeated) {
+                botIndices[unique++] = botIndices[i];
+            }
+        }
+
+        return unique < count ? Arrays.copyOf(botIndices, unique) : botIndices;
+    }
+
+    /**
+     * @return The indices of all bots
+     */
+    private int[] allBotIndices() {
+        int[] botIndices = new int[this.bots.size()];
+        for (int i = 0; i < botIndices.length; i++) {
+            botIndices[i] = i;
+        }
+
+        return botIndices;
+    }
+
+    /**
+     * Sends the part of the message from given offset to a given bot
      *
      * @param botIndex Bot to send to
      * @param message  Message to send
+     * @param offset   Index of the first character to send
      * @throws IOException
      */
-    private void botSend(int botIndex, String message) throws IOException {
+    private void botSend(int botIndex, String message, int offset) throws IOException {
         IOPlayer bot = bots.get(botIndex);
-        bot.send(message);
+        bot.send(message, offset);
     }
 
     /**
-     * Adds a warning from the engine to the bot's dump
+     * Adds the part of the message from given offset to the bot's dump
      *
      * @param botIndex Bot for which the warning is meant
-     * @param warning  Warning message
+     * @param message  Message containing the warning
+     * @param offset   Index of the first character of the warning
      */
-    private void botWarning(int botIndex, String warning) {
+    private void botWarning(int botIndex, String message, int offset) {
         IOPlayer bot = bots.get(botIndex);
-        bot.addToDump(warning);
+        bot.addToDump(message, offset);
     }
 
     /**
      * Sends a message to all bots
      *
      * @param message Message to send
-     * @return False if message send failed, true otherwise
      */
     private void botBroadcast(String message) {
-        for (IOPlayer bot : bots)
-            bot.send(message);
+        botBroadcast(message, 0);
     }
 
     /**
-     * Asks something from the engine and compares its answers
-     * to expected answer
+     * Sends the part of the message from given offset to all bots
      *
-     * @param message  Message to send
-     * @param expected Expected return from engine
-     * @return True if expected answer was returned, false otherwise
-     * @throws IOException
+     * @param message Message to send
+     * @param offset  Index of the first character to send
      */
-    private boolean askAndExpect(String message, String expected) throws IOException {
-        String response = this.engine.ask(message);
-        if (!response.equals(expected)) {
-            System.err.println(String.format(
-                    "Unexpected response: %s\n to message: %s", response, message));
-            return false;
-        }
-        return true;
+    private void botBroadcast(String message, int offset) {
+        for (IOPlayer bot : bots)
+            bot.send(message, offset);
     }
 }
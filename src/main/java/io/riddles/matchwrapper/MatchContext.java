@@ -0,0 +1,297 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper;
+
+import org.json.JSONObject;
+
+/**
+ * MatchContext class
+ *
+ * Holds the wrapper settings of a single match. Every match gets
+ * its own context, so multiple matches can run in the same JVM.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class MatchContext {
+
+    private boolean debug = false;
+    private boolean suppressEngineIO = false; // when true: engine I/O is not printed
+    private boolean propagateBotExitCode = false; // when true: if a bot crashes, wrapper exits with code 1
+    private long engineTimeout = 10000L; // 10 seconds default
+    private long startupTimeout = 10000L; // 10 seconds default for bots to answer their ready command
+    private long maxTimeBank = 10000L; // 10 seconds default
+    private long timePerMove = 500L; // 0,5 seconds default
+    private int maxTimeouts = 0; // 0 timeouts default before shutdown
+    private long maxMemory = 200000; // over 200MB triggers warning
+    private long sampleInterval = 200L; // time between process resource samples
+    private int outputLogLimit = 1000000; // characters of each process stream that are stored
+    private boolean retainStdout = true; // when false: process stdout is only delivered, not stored
+    private long overheadThreshold = 0L; // p99 wrapper overhead per bot response in microseconds, 0 is no threshold
+    private boolean cpuTimebank = false; // when true: bots are charged the CPU time of their responses
+    private double wallTimeFactor = 2.0; // wall time limit of a response, relative to the timebank
+    private boolean botPoolEnabled = false; // when true: bots with a reset command are reused
+    private long botPoolMaxIdleTime = 60000L; // 1 minute default
+    private long botPoolMaxAge = 600000L; // 10 minutes default
+    private int botPoolMaxUses = 100;
+    private long botPoolResetTimeout = 2000L; // 2 seconds default
+    private boolean cpuIsolationEnabled = false; // when true: processes are started in a cgroup or with affinity
+    private String cgroupRoot; // cgroup v2 directory in which a group is created for every process
+    private double cpuQuota = 0; // cores every process may use, 0 is no quota
+    private String processCpus; // cpus processes may run on, null for all but the reserved cpus
+    private boolean pinProcesses = false; // when true: every process gets a single cpu of its own
+    private String reservedCpus; // cpus for the wrapper's reader threads, kept free of processes
+    private String resultFilePath;
+    private String recordFilePath; // file all process traffic is recorded to, null to not record
+
+    /**
+     * Creates a context with all default settings
+     */
+    public MatchContext() {}
+
+    /**
+     * Creates a context from the wrapper part of the config
+     *
+     * @param wrapperConfig The JSON object which contains the settings
+     */
+    public MatchContext(JSONObject wrapperConfig) {
+
+        if (wrapperConfig.has("engineTimeout")) {
+            this.engineTimeout = wrapperConfig.getLong("engineTimeout");
+        }
+
+        if (wrapperConfig.has("startupTimeout")) {
+            this.startupTimeout = wrapperConfig.getLong("startupTimeout");
+        }
+
+        if (wrapperConfig.has("timebankMax")) {
+            this.maxTimeBank = wrapperConfig.getLong("timebankMax");
+        }
+
+        if (wrapperConfig.has("timePerMove")) {
+            this.timePerMove = wrapperConfig.getLong("timePerMove");
+        }
+
+        if (wrapperConfig.has("maxTimeouts")) {
+            this.maxTimeouts = wrapperConfig.getInt("maxTimeouts");
+        }
+
+        if (wrapperConfig.has("maxMemory")) {
+            this.maxMemory = wrapperConfig.getLong("maxMemory");
+        }
+
+        if (wrapperConfig.has("sampleInterval")) {
+            this.sampleInterval = wrapperConfig.getLong("sampleInterval");
+        }
+
+        if (wrapperConfig.has("outputLogLimit")) {
+            this.outputLogLimit = wrapperConfig.getInt("outputLogLimit");
+        }
+
+        if (wrapperConfig.has("retainStdout")) {
+            this.retainStdout = wrapperConfig.getBoolean("retainStdout");
+        }
+
+        if (wrapperConfig.has("overheadThreshold")) {
+            this.overheadThreshold = wrapperConfig.getLong("overheadThreshold");
+        }
+
+        if (wrapperConfig.has("timebankClock")) {
+            String clock = wrapperConfig.getString("timebankClock");
+
+            if (!clock.equals("wall") && !clock.equals("cpu")) {
+                throw new RuntimeException(String.format("Unknown timebank clock: %s", clock));
+            }
+
+            this.cpuTimebank = clock.equals("cpu");
+        }
+
+        if (wrapperConfig.has("wallTimeFactor")) {
+            this.wallTimeFactor = Math.max(wrapperConfig.getDouble("wallTimeFactor"), 1.0);
+        }
+
+        if (wrapperConfig.has("debug")) {
+            this.debug = wrapperConfig.getBoolean("debug");
+        }
+
+        if (wrapperConfig.has("suppressEngineIO")) {
+            this.suppressEngineIO = wrapperConfig.getBoolean("suppressEngineIO");
+        }
+
+        if (wrapperConfig.has("propagateBotExitCode")) {
+            this.propagateBotExitCode = wrapperConfig.getBoolean("propagateBotExitCode");
+        }
+
+        if (wrapperConfig.has("botPool")) {
+            parseBotPoolSettings(wrapperConfig.getJSONObject("botPool"));
+        }
+
+        if (wrapperConfig.has("cpuIsolation")) {
+            parseCpuIsolationSettings(wrapperConfig.getJSONObject("cpuIsolation"));
+        }
+
+        this.resultFilePath = wrapperConfig.optString("resultFile", null);
+        this.recordFilePath = wrapperConfig.optString("recordFile", null);
+    }
+
+    private void parseBotPoolSettings(JSONObject poolConfig) {
+        this.botPoolEnabled = true;
+
+        if (poolConfig.has("maxIdleTime")) {
+            this.botPoolMaxIdleTime = poolConfig.getLong("maxIdleTime");
+        }
+
+        if (poolConfig.has("maxAge")) {
+            this.botPoolMaxAge = poolConfig.getLong("maxAge");
+        }
+
+        if (poolConfig.has("maxUses")) {
+            this.botPoolMaxUses = poolConfig.getInt("maxUses");
+        }
+
+        if (poolConfig.has("resetTimeout")) {
+            this.botPoolResetTimeout = poolConfig.getLong("resetTimeout");
+        }
+    }
+
+    private void parseCpuIsolationSettings(JSONObject isolationConfig) {
+        this.cpuIsolationEnabled = true;
+        this.cgroupRoot = isolationConfig.optString("cgroup", null);
+        this.cpuQuota = isolationConfig.optDouble("cpuQuota", 0);
+        this.processCpus = isolationConfig.optString("cpus", null);
+        this.pinProcesses = isolationConfig.optBoolean("pin", false);
+        this.reservedCpus = isolationConfig.optString("reservedCpus", null);
+    }
+
+    public boolean isDebug() {
+        return this.debug;
+    }
+
+    public boolean isEngineIOSuppressed() {
+        return this.suppressEngineIO;
+    }
+
+    public boolean isBotExitCodePropagated() {
+        return this.propagateBotExitCode;
+    }
+
+    public long getEngineTimeout() {
+        return this.engineTimeout;
+    }
+
+    public long getStartupTimeout() {
+        return this.startupTimeout;
+    }
+
+    public long getMaxTimeBank() {
+        return this.maxTimeBank;
+    }
+
+    public long getTimePerMove() {
+        return this.timePerMove;
+    }
+
+    public int getMaxTimeouts() {
+        return this.maxTimeouts;
+    }
+
+    public long getMaxMemory() {
+        return this.maxMemory;
+    }
+
+    public long getSampleInterval() {
+        return this.sampleInterval;
+    }
+
+    public int getOutputLogLimit() {
+        return this.outputLogLimit;
+    }
+
+    public boolean isStdoutRetained() {
+        return this.retainStdout;
+    }
+
+    public long getOverheadThreshold() {
+        return this.overheadThreshold;
+    }
+
+    public boolean isCpuTimebank() {
+        return this.cpuTimebank;
+    }
+
+    public double getWallTimeFactor() {
+        return this.wallTimeFactor;
+    }
+
+    public boolean isBotPoolEnabled() {
+        return this.botPoolEnabled;
+    }
+
+    public long getBotPoolMaxIdleTime() {
+        return this.botPoolMaxIdleTime;
+    }
+
+    public long getBotPoolMaxAge() {
+        return this.botPoolMaxAge;
+    }
+
+    public int getBotPoolMaxUses() {
+        return this.botPoolMaxUses;
+    }
+
+    public long getBotPoolResetTimeout() {
+        return this.botPoolResetTimeout;
+    }
+
+    public boolean isCpuIsolationEnabled() {
+        return this.cpuIsolationEnabled;
+    }
+
+    public String getCgroupRoot() {
+        return this.cgroupRoot;
+    }
+
+    public double getCpuQuota() {
+        return this.cpuQuota;
+    }
+
+    public String getProcessCpus() {
+        return this.processCpus;
+    }
+
+    public boolean isPinProcesses() {
+        return this.pinProcesses;
+    }
+
+    public String getReservedCpus() {
+        return this.reservedCpus;
+    }
+
+    /**
+     * @return Path of the result file, null if results should not be saved
+     */
+    public String getResultFilePath() {
+        return this.resultFilePath;
+    }
+
+    /**
+     * @return Path of the traffic recording, null if traffic should not be recorded
+     */
+    public String getRecordFilePath() {
+        return this.recordFilePath;
+    }
+}
@@ -0,0 +1,61 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper;
+
+import org.json.JSONObject;
+
+/**
+ * MatchResult class
+ *
+ * Outcome of a single match or scenario run by a MatchSession
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class MatchResult {
+
+    private int exitStatus;
+    private long timeElapsed;
+    private JSONObject results;
+
+    public MatchResult(int exitStatus, long timeElapsed, JSONObject results) {
+        this.exitStatus = exitStatus;
+        this.timeElapsed = timeElapsed;
+        this.results = results;
+    }
+
+    /**
+     * @return 0 if the match ran successfully, 1 otherwise
+     */
+    public int getExitStatus() {
+        return this.exitStatus;
+    }
+
+    /**
+     * @return Time it took to run the match in milliseconds
+     */
+    public long getTimeElapsed() {
+        return this.timeElapsed;
+    }
+
+    /**
+     * @return The results of the match, as they are saved in the result file
+     */
+    public JSONObject getResults() {
+        return this.results;
+    }
+}
@@ -0,0 +1,103 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MatchSession class
+ *
+ * Programmatic entry point for running a single match or scenario,
+ * for embedding the wrapper in another Java application. The config is
+ * the same as the one given to the MatchWrapper on the command line.
+ * All settings live in the match's own context, so any number of
+ * sessions can run at the same time in one JVM. If the config has
+ * no resultFile, the results are only returned and not saved.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class MatchSession implements Callable<MatchResult> {
+
+    private JSONObject config;
+
+    public MatchSession(JSONObject config) {
+        this.config = config;
+    }
+
+    /**
+     * Runs the whole match in the calling thread
+     *
+     * @return The result of the match
+     * @throws IOException exception
+     */
+    @Override
+    public MatchResult call() throws IOException {
+        long startTime = System.nanoTime();
+
+        MatchWrapper game = new MatchWrapper();
+        boolean done = false;
+
+        try {
+            try {
+                game.prepare(this.config);
+            } catch (Exception e) {
+                throw new RuntimeException("Failed to parse settings: " + e.getMessage(), e);
+            }
+
+            System.out.println("Starting...");
+            game.run();
+
+            long timeElapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+
+            System.out.println("Stopping...");
+            int exitStatus = game.postrun(timeElapsed);
+            done = true;
+
+            System.out.println("Done.");
+            return new MatchResult(exitStatus, timeElapsed, game.getResults());
+        } finally {
+            // the processes would outlive a failed match in batch, daemon and spool mode
+            if (!done) {
+                game.abort();
+            }
+        }
+    }
+
+    /**
+     * Runs the match on given executor
+     *
+     * @param executor Executor to run the match on
+     * @return Future that completes with the result of the match
+     */
+    public CompletableFuture<MatchResult> start(Executor executor) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return call();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }, executor);
+    }
+}
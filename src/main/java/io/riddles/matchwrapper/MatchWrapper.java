@@ -21,12 +21,13 @@ package io.riddles.matchwrapper;
 import io.riddles.matchwrapper.runner.MatchRunner;
 import io.riddles.matchwrapper.runner.Reportable;
 import io.riddles.matchwrapper.runner.Runnable;
+import io.riddles.matchwrapper.runner.ReplayRunner;
 import io.riddles.matchwrapper.runner.ScenarioRunner;
+import io.riddles.matchwrapper.runner.SuiteRunner;
 import org.json.JSONObject;
 
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.concurrent.TimeUnit;
+import java.util.Arrays;
 
 /**
  * MatchWrapper class
@@ -39,40 +40,65 @@ import java.util.concurrent.TimeUnit;
  */
 public class MatchWrapper implements Runnable {
 
-    public static boolean DEBUG = false;
-    public static boolean SUPPRESS_ENGINE_IO = false; // when true: engine I/O is not printed
-    public static boolean PROPAGATE_BOT_EXIT_CODE = false; // when true: if a bot crashes, wrapper exits with code 1
-    public static long ENGINE_TIMEOUT = 10000L; // 10 seconds default
-    public static long MAX_TIME_BANK = 10000L; // 10 seconds default
-    public static long TIME_PER_MOVE = 500L; // 0,5 seconds default
-    public static int MAX_TIMEOUTS = 0; // 0 timeouts default before shutdown
-    public static long MAX_MEMORY = 200000; // over 200MB triggers warning
-    private String resultFilePath;
+    private MatchContext context;
     private Runnable runner;
+    private JSONObject results;
 
     public static void main(String[] args) throws IOException {
-        long startTime = System.nanoTime();
+        if (args.length > 0 && args[0].equals(BatchWrapper.ARGUMENT)) {
+            BatchWrapper batch = BatchWrapper.fromArguments(Arrays.copyOfRange(args, 1, args.length));
+            System.exit(batch.run());
+        }
+
+        if (args.length > 0 && args[0].equals(DaemonWrapper.ARGUMENT)) {
+            DaemonWrapper daemon = DaemonWrapper.fromArguments(Arrays.copyOfRange(args, 1, args.length));
+            System.exit(daemon.run());
+        }
+
+        if (args.length > 0 && args[0].equals(SpoolWrapper.ARGUMENT)) {
+            SpoolWrapper spool = SpoolWrapper.fromArguments(Arrays.copyOfRange(args, 1, args.length));
+            System.exit(spool.run());
+        }
 
         JSONObject config;
-        MatchWrapper game = new MatchWrapper();
 
         try {
             config = new JSONObject(args[0]);
-            game.prepare(config);
         } catch (Exception e) {
-            throw new RuntimeException("Failed to parse settings." + e.getMessage());
+            throw new RuntimeException("Failed to parse settings: " + e.getMessage(), e);
         }
 
-        System.out.println("Starting...");
-        game.run();
+        validateConfig(config);
 
-        long timeElapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        System.exit(runMatch(config));
+    }
 
-        System.out.println("Stopping...");
-        int exitStatus = game.postrun(timeElapsed);
+    /**
+     * Checks that a config given on the command line or in a batch
+     * manifest has a wrapper configuration with a result file
+     *
+     * @param config The JSON object with the wrapper and match/scenario configuration
+     */
+    static void validateConfig(JSONObject config) {
+        if (!config.has("wrapper")) {
+            throw new RuntimeException("No configuration present for wrapper");
+        }
 
-        System.out.println("Done.");
-        System.exit(exitStatus);
+        if (!config.getJSONObject("wrapper").has("resultFile")) {
+            throw new RuntimeException("No resultFile specified in wrapper configuration");
+        }
+    }
+
+    /**
+     * Runs a single match or scenario from start to finish and
+     * saves the results
+     *
+     * @param config The JSON object with the wrapper and match/scenario configuration
+     * @return The exit status of the match
+     * @throws IOException exception
+     */
+    public static int runMatch(JSONObject config) throws IOException {
+        return new MatchSession(config).call().getExitStatus();
     }
 
     @Override
@@ -82,59 +108,34 @@ public class MatchWrapper implements Runnable {
 
         if (config.has("match")) {
             runnerConfig = config.getJSONObject("match");
-            this.runner = new MatchRunner();
+            this.runner = new MatchRunner(this.context);
         } else if (config.has("scenario")) {
             runnerConfig = config.getJSONObject("scenario");
-            this.runner = new ScenarioRunner();
+            this.runner = new ScenarioRunner(this.context);
+        } else if (config.has("suite")) {
+            runnerConfig = config.getJSONObject("suite");
+            this.runner = new SuiteRunner(this.context);
+        } else if (config.has("replay")) {
+            runnerConfig = config.getJSONObject("replay");
+            this.runner = new ReplayRunner(this.context);
         } else {
-            throw new RuntimeException("Config does not contain either match or scenario");
+            throw new RuntimeException("Config does not contain either match, scenario, suite or replay");
         }
 
         this.runner.prepare(runnerConfig);
     }
 
     /**
-     * Sets timebank settings for the bots
+     * Creates the context with the wrapper settings for this match
      *
      * @param config The JSON string which contains the settings
      */
     private void parseSettings(JSONObject config) {
-
-        JSONObject wrapperConfig = config.getJSONObject("wrapper");
-
-        if (wrapperConfig.has("engineTimeout")) {
-            ENGINE_TIMEOUT = wrapperConfig.getLong("engineTimeout");
-        }
-
-        if (wrapperConfig.has("timebankMax")) {
-            MAX_TIME_BANK = wrapperConfig.getLong("timebankMax");
-        }
-
-        if (wrapperConfig.has("timePerMove")) {
-            TIME_PER_MOVE = wrapperConfig.getLong("timePerMove");
-        }
-
-        if (wrapperConfig.has("maxTimeouts")) {
-            MAX_TIMEOUTS = wrapperConfig.getInt("maxTimeouts");
-        }
-
-        if (wrapperConfig.has("maxMemory")) {
-            MAX_MEMORY = wrapperConfig.getLong("maxMemory");
-        }
-
-        if (wrapperConfig.has("debug")) {
-            DEBUG = wrapperConfig.getBoolean("debug");
-        }
-
-        if (wrapperConfig.has("suppressEngineIO")) {
-            SUPPRESS_ENGINE_IO = wrapperConfig.getBoolean("suppressEngineIO");
-        }
-
-        if (wrapperConfig.has("propagateBotExitCode")) {
-            PROPAGATE_BOT_EXIT_CODE = wrapperConfig.getBoolean("propagateBotExitCode");
+        if (config.has("wrapper")) {
+            this.context = new MatchContext(config.getJSONObject("wrapper"));
+        } else {
+            this.context = new MatchContext();
         }
-
-        this.resultFilePath = wrapperConfig.getString("resultFile");
     }
 
     @Override
@@ -146,27 +147,72 @@ public class MatchWrapper implements Runnable {
     public int postrun(long responseTime) throws IOException {
         int exitStatus = this.runner.postrun(responseTime);
 
-        JSONObject resultSet = ((Reportable) this.runner).getResults();
+        this.results = ((Reportable) this.runner).getResults();
 
-        System.out.println("Saving game...");
-        saveGame(resultSet);
+        if (this.context.getResultFilePath() != null) {
+            System.out.println("Saving game...");
+            try {
+                saveGame(this.results);
+            } finally {
+                deletePayloadFiles(this.results);
+            }
+        }
 
         return exitStatus;
     }
 
+    @Override
+    public void abort() {
+        if (this.runner != null) {
+            this.runner.abort();
+        }
+    }
+
+    /**
+     * @return The results of the match, null before postrun
+     */
+    public JSONObject getResults() {
+        return this.results;
+    }
+
+    /**
+     * @return The settings of this match
+     */
+    public MatchContext getContext() {
+        return this.context;
+    }
+
     private void saveGame(JSONObject result) throws IOException {
-        System.out.println(String.format("Writing to %s", this.resultFilePath));
+        String resultFilePath = this.context.getResultFilePath();
+        System.out.println(String.format("Writing to %s", resultFilePath));
+
+        new ResultWriter(resultFilePath).write(result);
 
-        FileWriter writer = new FileWriter(this.resultFilePath);
-        writer.write(result.toString());
-        writer.close();
+        if (this.context.isDebug() && result.has("game")) {
+            Object game = result.get("game");
+            ResultWriter gameWriter = new ResultWriter("./game-resultfile.json");
 
-        if (DEBUG && result.has("game")) {
-            FileWriter gameWriter = new FileWriter("./game-resultfile.json");
-            gameWriter.write(result.getString("game"));
-            gameWriter.close();
+            if (game instanceof PayloadFile) {
+                gameWriter.writeRaw((PayloadFile) game);
+            } else {
+                gameWriter.writeRaw(result.getString("game"));
+            }
         }
 
-        System.out.println(String.format("Finished writing to %s", this.resultFilePath));
+        System.out.println(String.format("Finished writing to %s", resultFilePath));
+    }
+
+    /**
+     * Removes the files the engine wrote result payloads to,
+     * once their content is in the result file
+     */
+    private void deletePayloadFiles(JSONObject result) {
+        for (String key : new String[]{"details", "game"}) {
+            Object value = result.opt(key);
+
+            if (value instanceof PayloadFile) {
+                ((PayloadFile) value).delete();
+            }
+        }
     }
 }
@@ -0,0 +1,115 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper;
+
+import org.json.JSONObject;
+import org.json.JSONString;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * PayloadFile class
+ *
+ * A file the engine writes a large result payload to, like the played
+ * game, instead of sending it as a single line. In the results it stands
+ * for a JSON string with the file's content, which the ResultWriter
+ * streams from the file without reading it into memory.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class PayloadFile implements JSONString {
+
+    private Path path;
+
+    private PayloadFile(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Creates a new empty payload file next to the result file
+     * @param resultFilePath Path of the result file
+     * @param name Name of the payload, used in the file name
+     * @return The payload file
+     * @throws IOException exception
+     */
+    public static PayloadFile create(String resultFilePath, String name) throws IOException {
+        Path directory = Paths.get(resultFilePath).toAbsolutePath().getParent();
+
+        return new PayloadFile(Files.createTempFile(directory, name + "-", ".payload"));
+    }
+
+    /**
+     * @return Path of the file
+     */
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * @return True if the file exists and is not empty
+     */
+    public boolean isWritten() {
+        try {
+            return Files.size(this.path) > 0;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return A reader of the file's content
+     * @throws IOException exception
+     */
+    public Reader openReader() throws IOException {
+        return Files.newBufferedReader(this.path, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Deletes the file
+     */
+    public void delete() {
+        try {
+            Files.deleteIfExists(this.path);
+        } catch (IOException ex) {
+            System.err.println(String.format("Failed to delete %s: %s", this.path, ex));
+        }
+    }
+
+    /**
+     * Reads the whole file into a quoted JSON string, only used when the
+     * results are serialized with JSONObject.toString instead of the ResultWriter
+     */
+    @Override
+    public String toJSONString() {
+        try {
+            return JSONObject.quote(new String(Files.readAllBytes(this.path), StandardCharsets.UTF_8));
+        } catch (IOException ex) {
+            return JSONObject.quote("");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return this.path.toString();
+    }
+}
@@ -0,0 +1,300 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * ResultWriter class
+ *
+ * Writes a result file by streaming the JSON directly to disk, instead
+ * of first building the whole file as a single string. The file is written
+ * to a temporary file next to the result file first and then moved into
+ * place, so a result file is either complete or not there at all. If the
+ * path ends with .gz, the file is gzipped. Payload files in the results are
+ * streamed into the result file as JSON strings.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class ResultWriter {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final String GZIP_EXTENSION = ".gz";
+
+    private Path path;
+
+    public ResultWriter(String path) {
+        this.path = Paths.get(path).toAbsolutePath();
+    }
+
+    /**
+     * Writes given JSON value to the result file
+     * @param value JSON object, array or string to write
+     * @throws IOException exception
+     */
+    public void write(Object value) throws IOException {
+        Path tempFile = getTempFile();
+
+        try {
+            try (Writer writer = openWriter(tempFile)) {
+                writeValue(writer, value);
+            }
+
+            moveIntoPlace(tempFile);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Writes given string to the result file as is, not as JSON string
+     * @param content Content of the file
+     * @throws IOException exception
+     */
+    public void writeRaw(String content) throws IOException {
+        Path tempFile = getTempFile();
+
+        try {
+            try (Writer writer = openWriter(tempFile)) {
+                writer.write(content);
+            }
+
+            moveIntoPlace(tempFile);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Writes the content of given payload file to the result file as is, not as JSON string
+     * @param payload File with the content
+     * @throws IOException exception
+     */
+    public void writeRaw(PayloadFile payload) throws IOException {
+        Path tempFile = getTempFile();
+
+        try {
+            try (Writer writer = openWriter(tempFile); Reader reader = payload.openReader()) {
+                char[] buffer = new char[BUFFER_SIZE];
+                int count;
+
+                while ((count = reader.read(buffer)) >= 0) {
+                    writer.write(buffer, 0, count);
+                }
+            }
+
+            moveIntoPlace(tempFile);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * @return A new path for a temporary file next to the result file
+     */
+    private Path getTempFile() {
+        String name = String.format("%s.%016x.tmp",
+                this.path.getFileName(), ThreadLocalRandom.current().nextLong());
+
+        return this.path.resolveSibling(name);
+    }
+
+    // the file is created like any other file, so it gets the permissions of the umask
+    private Writer openWriter(Path file) throws IOException {
+        OutputStream stream = Files.newOutputStream(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+
+        if (this.path.getFileName().toString().endsWith(GZIP_EXTENSION)) {
+            stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+        }
+
+        return new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    private void moveIntoPlace(Path tempFile) throws IOException {
+        try {
+            Files.move(tempFile, this.path,
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(tempFile, this.path, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private void writeValue(Writer writer, Object value) throws IOException {
+        if (value == null || JSONObject.NULL.equals(value)) {
+            writer.write("null");
+        } else if (value instanceof JSONObject) {
+            writeObject(writer, (JSONObject) value);
+        } else if (value instanceof JSONArray) {
+            writeArray(writer, (JSONArray) value);
+        } else if (value instanceof CharSequence) {
+            writeString(writer, (CharSequence) value);
+        } else if (value instanceof PayloadFile) {
+            writePayload(writer, (PayloadFile) value);
+        } else {
+            writer.write(JSONObject.valueToString(value));
+        }
+    }
+
+    private void writeObject(Writer writer, JSONObject object) throws IOException {
+        Iterator<String> keys = object.keys();
+        String connector = "";
+
+        writer.write('{');
+        while (keys.hasNext()) {
+            String key = keys.next();
+
+            writer.write(connector);
+            writeString(writer, key);
+            writer.write(':');
+            writeValue(writer, object.opt(key));
+            connector = ",";
+        }
+        writer.write('}');
+    }
+
+    private void writeArray(Writer writer, JSONArray array) throws IOException {
+        writer.write('[');
+        for (int i = 0; i < array.length(); i++) {
+            if (i > 0) {
+                writer.write(',');
+            }
+            writeValue(writer, array.opt(i));
+        }
+        writer.write(']');
+    }
+
+    /**
+     * Writes a quoted and escaped JSON string. Characters that don't
+     * need escaping are written in runs, without copying the string.
+     */
+    private void writeString(Writer writer, CharSequence value) throws IOException {
+        String string = value.toString();
+        int length = string.length();
+        int runStart = 0;
+
+        writer.write('"');
+        for (int i = 0; i < length; i++) {
+            char c = string.charAt(i);
+            String escaped = escape(c);
+
+            if (escaped == null) continue;
+
+            writer.write(string, runStart, i - runStart);
+            writer.write(escaped);
+            runStart = i + 1;
+        }
+        writer.write(string, runStart, length - runStart);
+        writer.write('"');
+    }
+
+    /**
+     * Writes the content of a payload file as a quoted and escaped JSON string,
+     * reading it in chunks. Line endings at the end of the file are left out,
+     * like they are when the payload is sent as a line.
+     */
+    private void writePayload(Writer writer, PayloadFile payload) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE];
+        StringBuilder lineEndings = new StringBuilder(); // held back until more content follows
+
+        writer.write('"');
+        try (Reader reader = payload.openReader()) {
+            int count;
+
+            while ((count = reader.read(buffer)) >= 0) {
+                int end = count;
+                while (end > 0 && (buffer[end - 1] == '\n' || buffer[end - 1] == '\r')) {
+                    end--;
+                }
+
+                if (end > 0) {
+                    for (int i = 0; i < lineEndings.length(); i++) {
+                        writer.write(escape(lineEndings.charAt(i)));
+                    }
+                    lineEndings.setLength(0);
+                    writeEscaped(writer, buffer, end);
+                }
+
+                lineEndings.append(buffer, end, count - end);
+            }
+        }
+        writer.write('"');
+    }
+
+    /**
+     * Writes the first characters of a buffer escaped, in runs like writeString
+     */
+    private void writeEscaped(Writer writer, char[] buffer, int length) throws IOException {
+        int runStart = 0;
+
+        for (int i = 0; i < length; i++) {
+            String escaped = escape(buffer[i]);
+
+            if (escaped == null) continue;
+
+            writer.write(buffer, runStart, i - runStart);
+            writer.write(escaped);
+            runStart = i + 1;
+        }
+        writer.write(buffer, runStart, length - runStart);
+    }
+
+    private String escape(char c) {
+        switch (c) {
+            case '"':
+                return "\\\"";
+            case '\\':
+                return "\\\\";
+            case '\n':
+                return "\\n";
+            case '\r':
+                return "\\r";
+            case '\t':
+                return "\\t";
+            case '\b':
+                return "\\b";
+            case '\f':
+                return "\\f";
+            case '\u2028':
+            case '\u2029':
+                return String.format("\\u%04x", (int) c);
+            default:
+                if (c < ' ') {
+                    return String.format("\\u%04x", (int) c);
+                }
+                return null;
+        }
+    }
+}
@@ -0,0 +1,382 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper;
+
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SpoolWrapper class
+ *
+ * Runs the match configs that are dropped in the inbox directory of a
+ * spool directory, at most a given number at the same time. A job is
+ * claimed by atomically renaming it into the running directory, prefixed
+ * with the pid and start time of the wrapper, so multiple wrappers can
+ * share a spool directory. Without a result file in its config, a job's
+ * result is written next to it. When a job is done, it's moved with its
+ * result to the done directory, or to the failed directory when it crashed
+ * or exited with an error, renamed if an earlier job there has its name.
+ * On start, jobs in the running directory of wrappers that are no longer
+ * alive are moved back to the inbox.
+ * Only files ending in .json are picked up, so schedulers should write
+ * jobs under another name and rename them when complete.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class SpoolWrapper {
+
+    public static final String ARGUMENT = "--spool";
+    private static final String ONCE_ARGUMENT = "--once";
+    private static final String JOB_EXTENSION = ".json";
+    private static final String RESULT_EXTENSION = ".result.json";
+    private static final String ERROR_EXTENSION = ".error.txt";
+    private static final long RESCAN_INTERVAL = 1000L; // inbox is rescanned in case events got lost
+
+    private Path inbox;
+    private Path running;
+    private Path done;
+    private Path failed;
+    private int threads;
+    private boolean once;
+    private String owner;
+    private Semaphore slots;
+    private final AtomicInteger completed = new AtomicInteger();
+    private final AtomicInteger errored = new AtomicInteger();
+
+    public SpoolWrapper(Path spoolDirectory, int threads, boolean once) {
+        this.inbox = spoolDirectory.resolve("inbox");
+        this.running = spoolDirectory.resolve("running");
+        this.done = spoolDirectory.resolve("done");
+        this.failed = spoolDirectory.resolve("failed");
+        this.threads = threads;
+        this.once = once;
+        this.owner = getOwnerTag(ProcessHandle.current());
+    }
+
+    /**
+     * @return Tag of the claims of given wrapper process, its pid and start
+     * time, which no other process has even if it gets the same pid
+     */
+    private static String getOwnerTag(ProcessHandle process) {
+        long startTime = process.info().startInstant().map(Instant::toEpochMilli).orElse(0L);
+
+        return process.pid() + "-" + startTime;
+    }
+
+    /**
+     * Creates a spool wrapper from the command line arguments that
+     * follow --spool: directory [threads] [--once]
+     *
+     * @param args Command line arguments
+     * @return The spool wrapper
+     */
+    public static SpoolWrapper fromArguments(String[] args) {
+        List<String> positional = new ArrayList<>();
+        boolean once = false;
+
+        for (String arg : args) {
+            if (arg.equals(ONCE_ARGUMENT)) {
+                once = true;
+            } else {
+                positional.add(arg);
+            }
+        }
+
+        if (positional.isEmpty()) {
+            throw new RuntimeException("Usage: --spool <directory> [threads] [--once]");
+        }
+
+        int threads = positional.size() > 1
+                ? Integer.parseInt(positional.get(1))
+                : Runtime.getRuntime().availableProcessors();
+
+        return new SpoolWrapper(Paths.get(positional.get(0)), threads, once);
+    }
+
+    /**
+     * Runs jobs from the inbox until the wrapper is killed, or with
+     * --once, until the inbox is empty
+     *
+     * @return 0 if all jobs succeeded, 1 otherwise
+     * @throws IOException if the spool directories can't be used
+     */
+    public int run() throws IOException {
+        Files.createDirectories(this.inbox);
+        Files.createDirectories(this.running);
+        Files.createDirectories(this.done);
+        Files.createDirectories(this.failed);
+
+        int recovered = recover();
+        System.out.println(String.format("Watching %s using %d threads, recovered %d jobs",
+                this.inbox, this.threads, recovered));
+
+        this.slots = new Semaphore(this.threads);
+        ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+        long start = System.nanoTime();
+
+        try {
+            watch(executor);
+        } finally {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        long wallTime = (System.nanoTime() - start) / 1000000;
+        System.out.println(String.format("Ran %d jobs (%d failed) in %dms",
+                this.completed.get() + this.errored.get(), this.errored.get(), wallTime));
+
+        return this.errored.get() > 0 ? 1 : 0;
+    }
+
+    /**
+     * Claims jobs and runs them on given executor, until the wrapper is
+     * interrupted or with --once, until the inbox is empty
+     */
+    private void watch(ExecutorService executor) throws IOException {
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            this.inbox.register(watcher, StandardWatchEventKinds.ENTRY_CREATE);
+
+            while (true) {
+                this.slots.acquire();
+                Path job = claimNext();
+
+                if (job == null) {
+                    this.slots.release();
+                    if (this.once) break;
+
+                    WatchKey key = watcher.poll(RESCAN_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        key.pollEvents(); // includes overflows, the inbox is scanned anyway
+                        key.reset();
+                    }
+                    continue;
+                }
+
+                executor.execute(() -> {
+                    try {
+                        runJob(job);
+                    } finally {
+                        this.slots.release();
+                    }
+                });
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Moves jobs that were claimed by wrappers that are no longer
+     * running back to the inbox, and removes their partial results
+     *
+     * @return The number of jobs moved back
+     * @throws IOException if the running directory can't be read
+     */
+    private int recover() throws IOException {
+        int recovered = 0;
+
+        for (Path file : list(this.running)) {
+            String name = file.getFileName().toString();
+            int separator = name.indexOf('.');
+            String claimer = separator > 0 ? name.substring(0, separator) : "";
+
+            if (isAlive(claimer)) continue;
+
+            String originalName = name.substring(separator + 1);
+
+            if (originalName.endsWith(JOB_EXTENSION) && !isResultName(originalName)) {
+                moveUnique(file, this.inbox, originalName.substring(0, originalName.length() - JOB_EXTENSION.length()));
+                recovered++;
+            } else {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        return recovered;
+    }
+
+    /**
+     * @return True if the wrapper with given owner tag is still running
+     */
+    private boolean isAlive(String claimer) {
+        long pid;
+        try {
+            pid = Long.parseLong(claimer.substring(0, Math.max(claimer.indexOf('-'), 0)));
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+
+        // an earlier run with the same pid, like after a container restart
+        if (pid == ProcessHandle.current().pid()) return false;
+
+        return ProcessHandle.of(pid)
+                .map(process -> process.isAlive() && getOwnerTag(process).equals(claimer))
+                .orElse(false);
+    }
+
+    /**
+     * Claims the first job in the inbox by moving it to the running
+     * directory. Jobs that another wrapper claimed first are skipped.
+     *
+     * @return Path of the claimed job, null if there are no jobs
+     * @throws IOException if the inbox can't be read
+     */
+    private Path claimNext() throws IOException {
+        for (Path file : list(this.inbox)) {
+            String name = file.getFileName().toString();
+
+            if (!name.endsWith(JOB_EXTENSION) || name.startsWith(".")) continue;
+
+            Path claimed = this.running.resolve(this.owner + "." + name);
+            try {
+                Files.move(file, claimed, StandardCopyOption.ATOMIC_MOVE);
+                return claimed;
+            } catch (NoSuchFileException ex) {
+                // claimed by another wrapper
+            }
+        }
+
+        return null;
+    }
+
+    private void runJob(Path claimed) {
+        String name = claimed.getFileName().toString().substring(this.owner.length() + 1);
+        String baseName = name.substring(0, name.length() - JOB_EXTENSION.length());
+        Path claimedResult = this.running.resolve(this.owner + "." + baseName + RESULT_EXTENSION);
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        String error = null;
+
+        try {
+            JSONObject config = new JSONObject(new String(Files.readAllBytes(claimed), StandardCharsets.UTF_8));
+            JSONObject wrapperConfig = config.getJSONObject("wrapper");
+
+            if (!wrapperConfig.has("resultFile")) {
+                wrapperConfig.put("resultFile", claimedResult.toString());
+            }
+
+            MatchResult result = new MatchSession(config).call();
+            succeeded = result.getExitStatus() == 0;
+
+            if (!succeeded) {
+                error = String.format("Match exited with status %d", result.getExitStatus());
+            }
+        } catch (Exception ex) {
+            StringWriter trace = new StringWriter();
+            ex.printStackTrace(new PrintWriter(trace));
+            error = trace.toString();
+        }
+
+        Path destination = succeeded ? this.done : this.failed;
+        try {
+            String finishedName = moveUnique(claimed, destination, baseName);
+
+            if (Files.exists(claimedResult)) {
+                Files.move(claimedResult, destination.resolve(finishedName + RESULT_EXTENSION));
+            }
+
+            if (error != null) {
+                Files.write(destination.resolve(finishedName + ERROR_EXTENSION),
+                        error.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW);
+            }
+        } catch (IOException ex) {
+            System.err.println(String.format("Unable to move job %s: %s", name, ex.getMessage()));
+        }
+
+        if (succeeded) {
+            this.completed.incrementAndGet();
+        } else {
+            this.errored.incrementAndGet();
+        }
+
+        System.out.println(String.format("Job %s %s in %dms", name, succeeded ? "done" : "failed",
+                (System.nanoTime() - start) / 1000000));
+    }
+
+    /**
+     * Moves a job to given directory, with a number added to its
+     * name if another job there has the same name
+     *
+     * @return The name the job got, without extension
+     */
+    private String moveUnique(Path job, Path directory, String baseName) throws IOException {
+        for (int number = 1; ; number++) {
+            String name = number == 1 ? baseName : baseName + "." + number;
+
+            if (Files.exists(directory.resolve(name + RESULT_EXTENSION))
+                    || Files.exists(directory.resolve(name + ERROR_EXTENSION))) continue;
+
+            try {
+                Files.move(job, directory.resolve(name + JOB_EXTENSION));
+                return name;
+            } catch (FileAlreadyExistsException ex) {
+                // taken by another job, try the next number
+            }
+        }
+    }
+
+    private boolean isResultName(String name) {
+        return name.endsWith(RESULT_EXTENSION);
+    }
+
+    /**
+     * @return The files in a directory, sorted by name so jobs
+     * with a time-based name run in order of arrival
+     */
+    private List<Path> list(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                files.add(file);
+            }
+        }
+
+        Collections.sort(files);
+        return files;
+    }
+}
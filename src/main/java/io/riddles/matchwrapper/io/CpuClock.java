@@ -0,0 +1,104 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * CpuClock class
+ *
+ * Reads the user and system CPU time used by a process and all its
+ * descendants from /proc. Running threads are read from their schedstat
+ * in nanoseconds, ended threads and children are only known in clock
+ * ticks. Children are only found if the kernel lists them, otherwise
+ * running children are missed until they end.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+class CpuClock {
+
+    private static final long NANOS_PER_TICK = 1000000000L / 100; // USER_HZ, 100 on all common Linux systems
+    private static final boolean CHILDREN_LISTED = Files.exists(Paths.get("/proc/thread-self/children"));
+
+    private CpuClock() {}
+
+    /**
+     * @param pid Process id
+     * @return CPU time in nanoseconds used by the process and its
+     * descendants, -1 if it can't be read
+     */
+    static long read(long pid) {
+        if (pid < 0) return -1;
+
+        try {
+            return readTree(pid);
+        } catch (IOException | RuntimeException ex) {
+            return -1; // process has ended or there is no /proc
+        }
+    }
+
+    private static long readTree(long pid) throws IOException {
+        Path proc = Paths.get("/proc", Long.toString(pid));
+
+        // fields after the command name, which may contain spaces
+        String stat = readFile(proc.resolve("stat"));
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]); // utime, stime
+        long childTicks = Long.parseLong(fields[13]) + Long.parseLong(fields[14]); // cutime, cstime
+
+        long running = 0;
+        long descendants = 0;
+
+        try (DirectoryStream<Path> tasks = Files.newDirectoryStream(proc.resolve("task"))) {
+            for (Path task : tasks) {
+                String schedstat = readFile(task.resolve("schedstat"));
+                running += Long.parseLong(schedstat.substring(0, schedstat.indexOf(' ')));
+
+                if (CHILDREN_LISTED) {
+                    descendants += readChildren(task);
+                }
+            }
+        } catch (IOException ignored) {} // a thread ended while reading, ticks are used
+
+        // schedstat misses ended threads and is 0 if the kernel doesn't keep it
+        return Math.max(running, ticks * NANOS_PER_TICK) + childTicks * NANOS_PER_TICK + descendants;
+    }
+
+    private static long readChildren(Path task) throws IOException {
+        long time = 0;
+
+        for (String child : readFile(task.resolve("children")).trim().split(" ")) {
+            if (child.isEmpty()) continue;
+
+            try {
+                time += readTree(Long.parseLong(child));
+            } catch (IOException ignored) {} // child has ended
+        }
+
+        return time;
+    }
+
+    private static String readFile(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+}
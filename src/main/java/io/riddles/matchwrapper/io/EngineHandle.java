@@ -0,0 +1,117 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * EngineHandle interface
+ *
+ * The engine as the EngineAPI sees it: something that takes lines and
+ * gives lines (or frames) back. Implemented by IOEngine for engine
+ * processes and by InProcessEngine for engines running in the wrapper's JVM.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public interface EngineHandle {
+
+    /**
+     * Asks the engine to initialize
+     * @return Engine's response, "ok" if the engine initialized
+     * @throws IOException exception
+     */
+    String initialize() throws IOException;
+
+    /**
+     * Send line to engine
+     * @param message Message to send
+     * @return True if the engine got the message, false otherwise
+     */
+    boolean send(String message);
+
+    /**
+     * Send line to engine and waits for response
+     * @param line Message to send
+     * @return Engine's response
+     * @throws IOException exception
+     */
+    String ask(String line) throws IOException;
+
+    /**
+     * Waits for the next message of the engine
+     * @return Message from the engine, empty string if timeout
+     */
+    String getMessage();
+
+    /**
+     * Waits for the next frame of the engine, only used if the engine is framed
+     * @return Frame from the engine, null if timeout
+     */
+    Frame getFrame();
+
+    /**
+     * @return The nanoTime the last message taken from the engine was received
+     */
+    long getMessageTime();
+
+    /**
+     * @return True if the engine agreed to use frames
+     */
+    boolean isFramed();
+
+    /**
+     * @return True if the engine writes the game and details to a file
+     */
+    boolean usesPayloadFiles();
+
+    /**
+     * Sends the configuration of the match to the engine
+     * @return True if the engine got the configuration, false otherwise
+     */
+    boolean sendConfiguration();
+
+    /**
+     * @return Latency of the engine's messages, like its think times
+     */
+    LatencyStats getLatencyStats();
+
+    /**
+     * Shuts down the engine
+     * @return Exit status of the engine
+     */
+    int finish();
+
+    /**
+     * Sends the bot IDs to the engine
+     * @param bots All the bots for this game
+     * @return False if write failed, true otherwise
+     */
+    default boolean sendPlayers(ArrayList<IOPlayer> bots) {
+        StringBuilder message = new StringBuilder();
+        message.append("bot_ids ");
+        String connector = "";
+
+        for (int i=0; i < bots.size(); i++) {
+            message.append(String.format("%s%d", connector, i));
+            connector = ",";
+        }
+
+        return send(message.toString());
+    }
+}
@@ -0,0 +1,153 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * ErrorFileProcess class
+ *
+ * A process whose stderr is written to a file instead of a pipe, so it
+ * doesn't need a reader thread of its own: the file is tailed by the
+ * StreamReader together with the stderr of all other processes. The file
+ * is removed right after the process starts, only the process and the
+ * wrapper keep it open, so nothing is left behind when either of them dies.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class ErrorFileProcess extends Process {
+
+    private final Process process;
+    private final InputStream errorStream;
+
+    private ErrorFileProcess(Process process, InputStream errorStream) {
+        this.process = process;
+        this.errorStream = errorStream;
+    }
+
+    /**
+     * Starts a process with its stderr redirected to a new file
+     * @param builder Builder of the process, its stderr is overwritten
+     * @return The started process
+     * @throws IOException if the file or the process can't be created
+     */
+    public static ErrorFileProcess start(ProcessBuilder builder) throws IOException {
+        Path errorFile = Files.createTempFile("match-wrapper-", ".stderr");
+
+        try {
+            Process process = builder.redirectError(errorFile.toFile()).start();
+
+            return new ErrorFileProcess(process, new FileInputStream(errorFile.toFile()));
+        } finally {
+            Files.deleteIfExists(errorFile);
+        }
+    }
+
+    /**
+     * @return Stream of the stderr file, it returns end of stream
+     * when the process hasn't written anything new yet
+     */
+    @Override
+    public InputStream getErrorStream() {
+        return this.errorStream;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.process.getOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return this.process.getInputStream();
+    }
+
+    @Override
+    public int waitFor() throws InterruptedException {
+        return this.process.waitFor();
+    }
+
+    @Override
+    public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+        return this.process.waitFor(timeout, unit);
+    }
+
+    @Override
+    public int exitValue() {
+        return this.process.exitValue();
+    }
+
+    @Override
+    public void destroy() {
+        this.process.destroy();
+    }
+
+    @Override
+    public Process destroyForcibly() {
+        this.process.destroyForcibly();
+        return this;
+    }
+
+    @Override
+    public boolean supportsNormalTermination() {
+        return this.process.supportsNormalTermination();
+    }
+
+    @Override
+    public boolean isAlive() {
+        return this.process.isAlive();
+    }
+
+    @Override
+    public long pid() {
+        return this.process.pid();
+    }
+
+    @Override
+    public CompletableFuture<Process> onExit() {
+        return this.process.onExit().thenApply(process -> this);
+    }
+
+    @Override
+    public ProcessHandle toHandle() {
+        return this.process.toHandle();
+    }
+
+    @Override
+    public ProcessHandle.Info info() {
+        return this.process.info();
+    }
+
+    @Override
+    public Stream<ProcessHandle> children() {
+        return this.process.children();
+    }
+
+    @Override
+    public Stream<ProcessHandle> descendants() {
+        return this.process.descendants();
+    }
+}
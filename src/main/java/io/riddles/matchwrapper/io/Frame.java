@@ -0,0 +1,130 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Frame class
+ *
+ * A message between the engine and the wrapper in framing mode. On the
+ * stream every frame is a header of 9 bytes followed by the payload:
+ * the type (1 byte), the bot id (4 bytes, big-endian, -1 for all bots)
+ * and the payload length (4 bytes, big-endian). The payload is UTF-8 text.
+ * Text frames hold anything that would otherwise be a line, the other
+ * types are the bot commands, so their payload can be passed on as is.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class Frame {
+
+    public static final int HEADER_SIZE = 9;
+    public static final int MAX_PAYLOAD_SIZE = 1 << 28;
+    public static final int ALL_BOTS = -1;
+
+    public static final byte TEXT = 0;
+    public static final byte SEND = 1;
+    public static final byte ASK = 2;
+    public static final byte WARNING = 3;
+
+    private byte type;
+    private int botId;
+    private byte[] payload;
+    private String text; // payload decoded, only once it is needed
+
+    public Frame(byte type, int botId, byte[] payload) {
+        this.type = type;
+        this.botId = botId;
+        this.payload = payload;
+    }
+
+    /**
+     * @param text Text of the frame
+     * @return A text frame
+     */
+    public static Frame text(String text) {
+        Frame frame = new Frame(TEXT, ALL_BOTS, text.getBytes(StandardCharsets.UTF_8));
+        frame.text = text;
+
+        return frame;
+    }
+
+    public byte getType() {
+        return this.type;
+    }
+
+    public int getBotId() {
+        return this.botId;
+    }
+
+    /**
+     * @return The payload, not to be modified
+     */
+    public byte[] getPayload() {
+        return this.payload;
+    }
+
+    /**
+     * @return The payload as text, decoded the first time it's asked for
+     */
+    public String getText() {
+        if (this.text == null) {
+            this.text = new String(this.payload, StandardCharsets.UTF_8);
+        }
+
+        return this.text;
+    }
+
+    /**
+     * @return The header of this frame as sent on the stream
+     */
+    public byte[] getHeader() {
+        return ByteBuffer.allocate(HEADER_SIZE)
+                .put(this.type)
+                .putInt(this.botId)
+                .putInt(this.payload.length)
+                .array();
+    }
+
+    /**
+     * @return The line this frame would be in line mode
+     */
+    public String toLine() {
+        String target = this.botId == ALL_BOTS ? "all" : String.valueOf(this.botId);
+
+        switch (this.type) {
+            case SEND:
+                return String.format("bot %s send %s", target, getText());
+            case ASK:
+                return String.format("bot %s ask %s", target, getText());
+            case WARNING:
+                return String.format("bot %s warning %s", target, getText());
+            default:
+                return getText();
+        }
+    }
+
+    /**
+     * @return Short description of the frame, without its payload
+     */
+    @Override
+    public String toString() {
+        return String.format("[frame type %d, bot %d, %d bytes]", this.type, this.botId, this.payload.length);
+    }
+}
@@ -21,10 +21,9 @@ import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.LinkedBlockingQueue;
 
-import io.riddles.matchwrapper.MatchWrapper;
+import io.riddles.matchwrapper.MatchContext;
 
 /**
  * IOEngine class
@@ -34,15 +33,20 @@ import io.riddles.matchwrapper.MatchWrapper;
  *
  * @author Sid Mijnders <sid@riddles.io>, Jim van Eeden <jim@starapple.nl>
  */
-public class IOEngine extends IOWrapper {
+public class IOEngine extends IOWrapper implements EngineHandle {
 
     private JSONObject configuration;
-
-    public IOEngine(Process process, JSONObject configuration) {
-        super(process);
-        this.timebank = MatchWrapper.ENGINE_TIMEOUT;
+    private boolean thinking; // true if the engine got input after its previous message
+    private boolean payloadFiles; // true if the engine writes the game and details to a file
+    private boolean framingRequested; // true if the engine is asked to use frames
+    private boolean framing; // true if the engine agreed to use frames
+
+    public IOEngine(Process process, JSONObject configuration, MatchContext context) {
+        super(process, context);
+        this.timebank = context.getEngineTimeout();
         this.configuration = configuration;
-        this.inputQueue = new ConcurrentLinkedQueue<>();
+        this.messageQueue = new LinkedBlockingQueue<>();
+        this.thinking = false;
     }
 
     /**
@@ -51,10 +55,75 @@ public class IOEngine extends IOWrapper {
      * @return True if write was successful, false otherwise
      */
     public boolean send(String message) {
-        if (!MatchWrapper.SUPPRESS_ENGINE_IO) {
+        if (!this.context.isEngineIOSuppressed()) {
             System.out.println(String.format("Engine in: '%s'", message));
         }
-        return write(message);
+
+        long start = System.nanoTime();
+        if (!(this.framing ? writeFrames(message) : write(message))) {
+            return false;
+        }
+
+        this.latency.record(LatencyStats.WRITE, getWriteTime() - start);
+        this.thinking = true;
+        return true;
+    }
+
+    /**
+     * Writes every line of the message as a text frame, all in one write
+     * @param message Message to send
+     * @return True if write was successful, false otherwise
+     */
+    private boolean writeFrames(String message) {
+        ArrayList<byte[]> parts = new ArrayList<>();
+        int start = 0;
+
+        while (start <= message.length()) {
+            int end = message.indexOf('\n', start);
+            if (end < 0) end = message.length();
+
+            Frame frame = Frame.text(message.substring(start, end));
+            parts.add(frame.getHeader());
+            parts.add(frame.getPayload());
+
+            start = end + 1;
+        }
+
+        return write(parts.toArray(new byte[0][]));
+    }
+
+    /**
+     * Asks the engine to initialize. If framing is requested, the engine
+     * is offered frames and can accept by answering "ok framed", after which
+     * all further messages in both directions are frames.
+     * @return Engine's response, "ok" if the engine initialized
+     * @throws IOException exception
+     */
+    public String initialize() throws IOException {
+        if (!this.framingRequested) {
+            String response = ask("initialize");
+            if (response.equals("ok")) {
+                markReady();
+            }
+
+            return response;
+        }
+
+        setFramingLine("ok framed");
+        String response = ask("initialize framed");
+
+        if (response.equals("ok framed")) {
+            this.framing = true;
+            response = "ok";
+        } else {
+            setFramingLine(null);
+        }
+
+        if (response.equals("ok")) {
+            markReady();
+        }
+
+        return response;
     }
 
     /**
@@ -64,11 +133,11 @@ public class IOEngine extends IOWrapper {
      * @throws IOException exception
      */
     public String ask(String line) throws IOException {
-        this.response = null;
+        long sequence = openRequest();
 
         send(line);
 
-        return getResponse(this.timebank);
+        return getResponse(sequence, this.timebank);
     }
 
     /**
@@ -78,30 +147,51 @@ public class IOEngine extends IOWrapper {
      * @return Message from the engine, empty string if timeout
      */
     public String getMessage() {
-        long timeStart = System.nanoTime();
-        String message = this.inputQueue.poll();
+        String message = pollMessage(this.timebank);
 
-        while (message == null) {
-            long timeElapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - timeStart);
+        if (message == null) {
+            return handleResponseTimeout(this.timebank);
+        }
 
-            if (timeElapsed >= this.timebank) {
-                return handleResponseTimeout(this.timebank);
-            }
+        // the engine only thinks when it got input after its previous message
+        if (this.thinking) {
+            this.latency.record(LatencyStats.THINK, getMessageTime() - getWriteTime());
+            this.thinking = false;
+        }
+
+        if (!this.context.isEngineIOSuppressed()) {
+            System.out.println(String.format("Engine out: '%s'", message));
+        }
 
-            try {
-                Thread.sleep(2);
-            } catch (InterruptedException ignored) {}
+        return message;
+    }
 
-            message = this.inputQueue.poll();
+    /**
+     * Waits until the engine returns one or multiple frames and returns
+     * the first given. Lines are returned as text frames.
+     * @return Frame from the engine, null if timeout
+     */
+    public Frame getFrame() {
+        ReceivedLine message = pollReceived(this.timebank);
+
+        if (message == null) {
+            handleResponseTimeout(this.timebank);
+            return null;
         }
 
-        this.response = null;
+        if (this.thinking) {
+            this.latency.record(LatencyStats.THINK, getMessageTime() - getWriteTime());
+            this.thinking = false;
+        }
 
-        if (!MatchWrapper.SUPPRESS_ENGINE_IO) {
-            System.out.println(String.format("Engine out: '%s'", message));
+        Frame frame = message.toFrame();
+
+        if (!this.context.isEngineIOSuppressed()) {
+            String printed = frame.getType() == Frame.TEXT ? frame.getText() : frame.toString();
+            System.out.println(String.format("Engine out: '%s'", printed));
         }
 
-        return message;
+        return frame;
     }
 
     /**
@@ -133,23 +223,38 @@ public class IOEngine extends IOWrapper {
     }
 
     /**
-     * Sends the bot IDs to the engine
-     * @param bots All the bots for this game
-     * @return False if write failed, true otherwise
+     * @param payloadFiles True if the engine writes the game and details to a
+     *                     file given by the wrapper, instead of sending them
      */
-    public boolean sendPlayers(ArrayList<IOPlayer> bots) {
-        StringBuilder message = new StringBuilder();
-        message.append("bot_ids ");
-        String connector = "";
-
-        for (int i=0; i < bots.size(); i++) {
-            message.append(String.format("%s%d", connector, i));
-            connector = ",";
-        }
+    public void setPayloadFiles(boolean payloadFiles) {
+        this.payloadFiles = payloadFiles;
+    }
+
+    /**
+     * @param framingRequested True if the engine is offered frames when it's initialized
+     */
+    public void setFramingRequested(boolean framingRequested) {
+        this.framingRequested = framingRequested;
+    }
+
+    /**
+     * @return True if the engine agreed to use frames
+     */
+    public boolean isFramed() {
+        return this.framing;
+    }
 
-        return send(message.toString());
+    /**
+     * @return True if the engine writes the game and details to a file
+     */
+    public boolean usesPayloadFiles() {
+        return this.payloadFiles;
     }
 
+    /**
+     * Sends the configuration of the match to the engine
+     * @return True if the write was successful, false otherwise
+     */
     public boolean sendConfiguration() {
         return send("configuration " + this.configuration.toString());
     }
@@ -17,13 +17,11 @@
 
 package io.riddles.matchwrapper.io;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.concurrent.TimeUnit;
 
-import io.riddles.matchwrapper.MatchWrapper;
+import io.riddles.matchwrapper.MatchContext;
 
 /**
  * IOPlayer class
@@ -38,28 +36,176 @@ public class IOPlayer extends IOWrapper {
     private int id;
     private StringBuilder dump;
     private int errorCounter;
-    private ArrayList<Long> responseTimes;
+    private long[] responseTimes;
+    private long[] cpuTimes; // CPU time of every response in ms, -1 if it couldn't be read
+    private int responseCount;
+    private long requestCpuTime; // CPU time in ns of the bot when the last request was sent, -1 if unknown
+    private long responseCpuTime; // CPU time in ns of the bot when the last response was received, -1 if unknown
+    private long dispatchDuration; // nanoseconds from the engine's ask until the last request, -1 if unknown
+    private String poolKey; // command the bot was started with, null if it can't be reused
+    private String resetCommand;
+    private long resetLines; // lines output by the bot when it was last reset
+    private boolean checkingReady; // true while waiting for the answer to the ready command
+
+    private static final byte[] NEWLINE = { '\n' };
 
     private final String NULL_MOVE1 = "no_moves";
     private final String NULL_MOVE2 = "pass";
 
-    public IOPlayer(Process process, int id) {
-        super(process);
+    public IOPlayer(Process process, int id, MatchContext context) {
+        super(process, context);
         this.id = id;
-        this.timebank = MatchWrapper.MAX_TIME_BANK;
+        this.timebank = context.getMaxTimeBank();
         this.dump = new StringBuilder();
         this.errorCounter = 0;
-        this.responseTimes = new ArrayList<>();
+        this.responseTimes = new long[16];
+        this.cpuTimes = new long[16];
+        this.responseCount = 0;
     }
  
+    /**
+     * Marks this bot as reusable in other matches that start the
+     * same command, if it is reset successfully after the match
+     * @param poolKey The command the bot was started with
+     * @param resetCommand Command to reset the bot, the bot answers it with "ok"
+     */
+    public void setReusable(String poolKey, String resetCommand) {
+        this.poolKey = poolKey;
+        this.resetCommand = resetCommand;
+    }
+
+    /**
+     * Sends the reset command to the bot and waits for it to
+     * confirm with "ok"
+     * @param timeout Time before timeout
+     * @return True if the bot was reset, false otherwise
+     */
+    public boolean reset(long timeout) {
+        if (this.resetCommand == null || this.errored || !isAlive()) {
+            return false;
+        }
+
+        long sequence = openRequest();
+
+        if (!write(this.resetCommand)) {
+            return false;
+        }
+
+        boolean reset = super.getResponse(sequence, timeout).equals("ok");
+        this.resetLines = getReceivedLines();
+
+        return reset && !this.errored;
+    }
+
+    /**
+     * Sends a command the bot answers once it's ready to play, without
+     * waiting for the answer, so all bots can start up at the same time
+     * @param readyCommand Line to send
+     * @return Sequence number of the request, to wait for the answer with
+     */
+    public long sendReadyCheck(String readyCommand) {
+        long sequence = openRequest();
+        send(readyCommand);
+
+        return sequence;
+    }
+
+    /**
+     * Waits until the bot answers the ready command with any line. A bot
+     * that isn't ready in time gets a time out.
+     * @param sequence Sequence number of the ready command
+     * @param timeout Time the bot gets to start up, from when the command was sent
+     * @return True if the bot is ready
+     */
+    public boolean awaitReady(long sequence, long timeout) {
+        this.checkingReady = true;
+        super.getResponse(sequence, timeout);
+        this.checkingReady = false;
+
+        if (isAnswered()) {
+            markReady();
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return True if the bot is still running and hasn't output
+     * anything since it was reset
+     */
+    boolean isClean() {
+        return isAlive() && !this.errored && getReceivedLines() == this.resetLines;
+    }
+
+    /**
+     * Prepares the bot for a new match, all stored state from
+     * the previous match is removed
+     * @param id The bot's ID in the new match
+     * @param context Settings of the new match
+     */
+    void reuse(int id, MatchContext context) {
+        this.id = id;
+        this.context = context;
+        this.timebank = context.getMaxTimeBank();
+        this.dump = new StringBuilder();
+        this.errorCounter = 0;
+        this.responseCount = 0;
+        clearStreams();
+    }
+
+    /**
+     * @return The command this bot was started with, null if it can't be reused
+     */
+    public String getPoolKey() {
+        return this.poolKey;
+    }
+
     /**
      * Send line to bot
      * @param line Line to send
      */
     public boolean send(String line) {
-        addToDump(line);
+        return send(line, 0);
+    }
+
+    /**
+     * Send the part of a line from given offset to bot,
+     * without copying it
+     * @param line Line to send
+     * @param offset Index of the first character to send
+     */
+    public boolean send(String line, int offset) {
+        return send(line, offset, "");
+    }
+
+    /**
+     * Send the part of a line from given offset to bot, followed
+     * by a suffix on the same line, without copying the line
+     * @param line Line to send
+     * @param offset Index of the first character to send
+     * @param suffix Text to send after the line
+     */
+    private boolean send(String line, int offset, String suffix) {
+        this.dump.append(line, offset, line.length()).append(suffix).append("\n");
+
+        if (!super.write(line, offset, suffix) && !this.finished) {
+            addToDump("Write to bot failed, shutting down...");
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Send the payload of a frame to bot as a line. The bytes are
+     * passed on as they are, they are only decoded for the dump.
+     * @param frame Frame to send
+     */
+    public boolean send(Frame frame) {
+        addToDump(frame.getText());
 
-        if (!super.write(line) && !this.finished) {
+        if (!super.write(frame.getPayload(), NEWLINE) && !this.finished) {
             addToDump("Write to bot failed, shutting down...");
             return false;
         }
@@ -75,32 +221,90 @@ public class IOPlayer extends IOWrapper {
      * @throws IOException exception
      */
     public String ask(String line) throws IOException {
-        this.response = null;
+        return getResponse(sendRequest(line));
+    }
+
+    /**
+     * Send line to bot taking the bot's timebank into account,
+     * without waiting for the response
+     * @param line Line to output
+     * @return Sequence number of the request, to get the response with
+     */
+    public long sendRequest(String line) {
+        startCpuTime();
+        long sequence = openRequest();
+        this.dispatchDuration = -1;
 
         send(String.format("%s %d", line, this.timebank));
+        flush();
+
+        return sequence;
+    }
+
+    /**
+     * Send line to bot taking the bot's timebank into account,
+     * without waiting for the response
+     * @param line Line to output
+     * @param dispatchStart The nanoTime the engine message that caused this request was received
+     * @return Sequence number of the request, to get the response with
+     */
+    public long sendRequest(String line, long dispatchStart) {
+        return sendRequest(line, 0, dispatchStart);
+    }
 
-        return getResponse();
+    /**
+     * Send the part of a line from given offset to bot taking the bot's
+     * timebank into account, without copying the line or waiting for the response
+     * @param line Line to output
+     * @param offset Index of the first character to send
+     * @param dispatchStart The nanoTime the engine message that caused this request was received
+     * @return Sequence number of the request, to get the response with
+     */
+    public long sendRequest(String line, int offset, long dispatchStart) {
+        startCpuTime();
+        long sequence = openRequest();
+        this.dispatchDuration = Math.max(getRequestTime() - dispatchStart, 0);
+
+        send(line, offset, " " + this.timebank);
+        flush(); // writes may be held, but a request can't wait
+
+        return sequence;
     }
 
     /**
-     * Waits until bot returns a response and returns it
+     * Waits until bot returns a response to given request and returns it
+     * @param sequence Sequence number of the request
      * @return Bot's response, returns and empty string when there is no response
      */
-    public String getResponse() {
-        
-        if (this.errorCounter > MatchWrapper.MAX_TIMEOUTS) {
+    public String getResponse(long sequence) {
+
+        if (this.errorCounter > this.context.getMaxTimeouts()) {
             addToDump(String.format("Maximum number (%d) of time-outs reached: " +
-                    "skipping all moves.", MatchWrapper.MAX_TIMEOUTS));
+                    "skipping all moves.", this.context.getMaxTimeouts()));
             return "null";
         }
 
-        long startTime = System.nanoTime();
+        String response = super.getResponse(sequence, getResponseTimeout());
+        recordLatency(System.nanoTime());
 
-        String response = super.getResponse(this.timebank);
+        long timeElapsed = TimeUnit.NANOSECONDS.toMillis(getRequestDuration());
+        long cpuTimeElapsed = getCpuTimeElapsed();
+        addResponseTime(timeElapsed, cpuTimeElapsed);
 
-        long timeElapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
-        this.responseTimes.add(timeElapsed);
-        updateTimeBank(timeElapsed);
+        if (this.context.isCpuTimebank() && cpuTimeElapsed >= 0) {
+            if (cpuTimeElapsed > this.timebank && isAnswered()) {
+                response = handleCpuTimeout(cpuTimeElapsed);
+            }
+
+            updateTimeBank(cpuTimeElapsed);
+        } else {
+            // without CPU time, the wait timeout would give the bot a multiple of its timebank
+            if (this.context.isCpuTimebank() && timeElapsed > this.timebank && isAnswered()) {
+                response = handleResponseTimeout(this.timebank);
+            }
+
+            updateTimeBank(timeElapsed);
+        }
 
         processMemoryWarning();
 
@@ -128,12 +332,77 @@ public class IOPlayer extends IOWrapper {
      * @return Empty string
      */
     protected String handleResponseTimeout(long timeout) {
+        if (this.checkingReady) {
+            addToDump(String.format("Bot was not ready within %dms.", timeout));
+            addError();
+            return "";
+        }
+
         addToDump(String.format("Response timed out (%dms), let your bot return '%s'"
             + " instead of nothing or make it faster.", timeout, NULL_MOVE1));
         addError();
         return "";
     }
     
+    /**
+     * Handles a response that used more CPU time than the timebank,
+     * which counts as a time out
+     * @param cpuTime CPU time used in milliseconds
+     * @return Empty string
+     */
+    private String handleCpuTimeout(long cpuTime) {
+        addToDump(String.format("Response used too much CPU time (%dms of %dms), " +
+                "the response is ignored.", cpuTime, this.timebank));
+        addError();
+        return "";
+    }
+
+    /**
+     * @return Time in ms to wait for a response, when charging CPU time
+     * the timebank is multiplied by the wall time factor
+     */
+    private long getResponseTimeout() {
+        if (!this.context.isCpuTimebank()) {
+            return this.timebank;
+        }
+
+        return (long) (this.timebank * this.context.getWallTimeFactor());
+    }
+
+    /**
+     * Reads the CPU time of the bot before a request, if it's charged
+     */
+    private void startCpuTime() {
+        this.requestCpuTime = this.context.isCpuTimebank() ? readCpuTime() : -1;
+        this.responseCpuTime = -1;
+    }
+
+    /**
+     * Reads the CPU time of the bot when its response arrives, so a bot
+     * that is collected later, like in a concurrent ask, isn't charged
+     * for what it did after answering
+     */
+    @Override
+    protected void responseReceived() {
+        if (this.requestCpuTime >= 0) {
+            this.responseCpuTime = readCpuTime();
+        }
+    }
+
+    /**
+     * @return CPU time in ms the bot used from when the last request was
+     * sent until its response, or until now if it didn't respond,
+     * -1 if it isn't charged or couldn't be read
+     */
+    private long getCpuTimeElapsed() {
+        if (this.requestCpuTime < 0) return -1;
+
+        long cpuTime = isAnswered() ? this.responseCpuTime : readCpuTime();
+        if (cpuTime < 0) return -1;
+
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(cpuTime - this.requestCpuTime, 0));
+    }
+
     /**
      * Increases error counter, call this method
      * when a write fails or when there is no
@@ -143,7 +412,7 @@ public class IOPlayer extends IOWrapper {
         this.errored = true;
         this.errorCounter++;
 
-        if (this.errorCounter > MatchWrapper.MAX_TIMEOUTS) {
+        if (this.errorCounter > this.context.getMaxTimeouts()) {
             finish();
         }
     }
@@ -158,7 +427,7 @@ public class IOPlayer extends IOWrapper {
 
         int exitStatus = super.finish();
 
-        if (!MatchWrapper.PROPAGATE_BOT_EXIT_CODE) {
+        if (!this.context.isBotExitCodePropagated()) {
             exitStatus = 0;
         }
 
@@ -167,27 +436,54 @@ public class IOPlayer extends IOWrapper {
         return exitStatus;
     }
 
-    private void processMemoryWarning() {
-        if (MatchWrapper.MAX_MEMORY <= 0) return;
+    /**
+     * Records how long each phase of the last request took, if it was answered.
+     * Pickup counts from when the response was received, or when it started to
+     * be collected if that was later, so the responses of bots asked at the same
+     * time aren't charged the wait for the bots collected before them.
+     * @param pickupTime The nanoTime the response was handed over
+     */
+    private void recordLatency(long pickupTime) {
+        if (!isAnswered()) return;
 
-        String memCommand = String.format("ps -o rss -p %d", this.pid);
+        long requestTime = getRequestTime();
+        long writeTime = getWriteTime();
+        long responseTime = getResponseTime();
 
-        try {
-            Process memProcess = Runtime.getRuntime().exec(memCommand);
-            BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(memProcess.getInputStream()));
+        long write = writeTime - requestTime;
+        long pickup = pickupTime - Math.max(responseTime, getCollectTime());
+        long overhead = write + pickup;
 
-            String line;
-            String memString = "0";
-            while ((line = reader.readLine()) != null) {
-                memString = line;
-            }
+        if (this.dispatchDuration >= 0) {
+            this.latency.record(LatencyStats.DISPATCH, this.dispatchDuration);
+            overhead += this.dispatchDuration;
+        }
 
-            long memBytes = Long.parseLong(memString);
-            if (memBytes > MatchWrapper.MAX_MEMORY) {
-                addToDump(getMemoryWarning(memBytes / 1000, MatchWrapper.MAX_MEMORY / 1000));
-            }
-        } catch (Exception ignored) {}
+        this.latency.record(LatencyStats.WRITE, write);
+        this.latency.record(LatencyStats.COMPUTE, responseTime - writeTime);
+        this.latency.record(LatencyStats.PICKUP, pickup);
+        this.latency.record(LatencyStats.OVERHEAD, overhead);
+    }
+
+    private void addResponseTime(long timeElapsed, long cpuTimeElapsed) {
+        if (this.responseCount == this.responseTimes.length) {
+            this.responseTimes = Arrays.copyOf(this.responseTimes, this.responseCount * 2);
+            this.cpuTimes = Arrays.copyOf(this.cpuTimes, this.responseCount * 2);
+        }
+
+        this.responseTimes[this.responseCount] = timeElapsed;
+        this.cpuTimes[this.responseCount++] = cpuTimeElapsed;
+    }
+
+    private void processMemoryWarning() {
+        long maxMemory = this.context.getMaxMemory();
+        if (maxMemory <= 0) return;
+
+        // rss in kB, as read by the process sampler
+        long memKilobytes = getProcessStats().getRss();
+        if (memKilobytes > maxMemory) {
+            addToDump(getMemoryWarning(memKilobytes / 1000, maxMemory / 1000));
+        }
     }
 
     private String getMemoryWarning(long usedMemory, long maxMemory) {
@@ -207,7 +503,7 @@ public class IOPlayer extends IOWrapper {
     private void updateTimeBank(long timeElapsed) {
         this.timebank = Math.max(this.timebank - timeElapsed, 0);
         this.timebank = Math.min(
-                this.timebank + MatchWrapper.TIME_PER_MOVE, MatchWrapper.MAX_TIME_BANK);
+                this.timebank + this.context.getTimePerMove(), this.context.getMaxTimeBank());
     }
 
     /**
@@ -224,7 +520,16 @@ public class IOPlayer extends IOWrapper {
      * @param dumpy String to add to the dump
      */
     public void addToDump(String dumpy) {
-        this.dump.append(dumpy).append("\n");
+        addToDump(dumpy, 0);
+    }
+
+    /**
+     * Adds the part of a string from given offset to the bot dump
+     * @param dumpy String to add to the dump
+     * @param offset Index of the first character to add
+     */
+    public void addToDump(String dumpy, int offset) {
+        this.dump.append(dumpy, offset, dumpy.length()).append("\n");
     }
     
     /**
@@ -233,6 +538,13 @@ public class IOPlayer extends IOWrapper {
     public String getDump() {
         return dump.toString();
     }
+
+    /**
+     * Removes all IO from the dump
+     */
+    public void clearDump() {
+        this.dump.setLength(0);
+    }
     
     /**
      * @return This bot's ID
@@ -242,9 +554,17 @@ public class IOPlayer extends IOWrapper {
     }
 
     /***
-     * @return A list with all response times
+     * @return All response times in milliseconds
+     */
+    public long[] getResponseTimes() {
+        return Arrays.copyOf(this.responseTimes, this.responseCount);
+    }
+
+    /***
+     * @return CPU time of all responses in milliseconds, -1 for responses
+     * of which it is unknown
      */
-    public ArrayList<Long> getResponseTimes() {
-        return this.responseTimes;
+    public long[] getCpuTimes() {
+        return Arrays.copyOf(this.cpuTimes, this.responseCount);
     }
 }
@@ -18,10 +18,15 @@
 package io.riddles.matchwrapper.io;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.OutputStreamWriter;
-import java.lang.reflect.Field;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.TimeUnit;;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import io.riddles.matchwrapper.MatchContext;
 
 /**
  * IOWrapper class
@@ -35,6 +40,10 @@ public abstract class IOWrapper implements Runnable {
 
     private Process process;
     private OutputStreamWriter inputStream;
+    private OutputStream rawInputStream; // the same stream, to write bytes to
+    private boolean holdingWrites; // when true: writes are buffered until flushWrites
+    private boolean writerBuffered; // true if the writer holds lines that are not flushed
+    private List<byte[][]> heldRecords = new ArrayList<>(); // held writes, recorded when they are flushed
     private InputStreamGobbler outputGobbler;
     private InputStreamGobbler errorGobbler;
     protected long pid = -1;
@@ -42,29 +51,61 @@ public abstract class IOWrapper implements Runnable {
     protected boolean errored;
     protected long timebank;
     protected int exitStatus;
-    
-    public String response;
-    public ConcurrentLinkedQueue<String> inputQueue;
-    
-    public IOWrapper(Process process) {
-        this.inputStream = new OutputStreamWriter(process.getOutputStream());
-        this.outputGobbler = new InputStreamGobbler(process.getInputStream(), this, "output");
-        this.errorGobbler = new InputStreamGobbler(process.getErrorStream(), this, "error");
+    protected MatchContext context;
+    private ProcessStats processStats;
+    protected LatencyStats latency;
+
+    private final Object responseLock = new Object();
+    private long requestSequence; // sequence number of the last request sent
+    private long pendingSequence; // request that is waiting for a response, -1 if none
+    private long responseSequence; // request the stored response belongs to
+    private boolean droppingLateLines; // true after a request timed out, until the next request is opened
+    private long receivedLines; // number of lines the process has output
+    private long requestTime; // nanoTime the pending or last request was opened
+    private long responseTime; // nanoTime the last response was received
+    private long requestDuration; // nanoseconds the last finished request took
+    private boolean answered; // true if the last finished request got a response
+    private long writeTime; // nanoTime the last write to the process finished
+    private long collectTime; // nanoTime the response to the last finished request started to be collected
+    private long messageTime; // nanoTime the last message taken from the message queue was received
+    private String response;
+    private long startTime; // nanoTime the process was started or taken from the bot pool
+    private long spawnDuration; // nanoseconds it took to start the process, 0 if it was reused
+    private long readyDuration = -1; // nanoseconds from the start until the process was ready, -1 if unknown
+    private long awaitedLines = -1; // number of output lines that is waited for, -1 if none
+    private volatile TrafficRecorder recorder; // records all traffic of the process, null if not recording
+    private int recordedProcess; // bot id or engine in the recording
+
+    protected BlockingQueue<ReceivedLine> messageQueue; // receives lines that don't answer a request
+
+    public IOWrapper(Process process, MatchContext context) {
+        this.rawInputStream = process.getOutputStream();
+        this.inputStream = new OutputStreamWriter(this.rawInputStream, StandardCharsets.UTF_8);
+        int stdoutLimit = context.isStdoutRetained() ? context.getOutputLogLimit() : 0;
+        this.outputGobbler = new InputStreamGobbler(
+                process.getInputStream(), this, "output", stdoutLimit);
+        this.errorGobbler = new InputStreamGobbler(
+                process.getErrorStream(), this, "error", context.getOutputLogLimit());
         this.process = process;
+        this.context = context;
         this.errored = false;
         this.finished = false;
+        this.requestSequence = 0;
+        this.pendingSequence = -1;
+        this.responseSequence = -1;
+        this.droppingLateLines = false;
+        this.answered = false;
+        this.processStats = new ProcessStats();
+        this.latency = new LatencyStats();
+        this.startTime = System.nanoTime();
 
         setPid();
     }
 
-    private synchronized void setPid() {
+    private void setPid() {
         try {
-            Field field = this.process.getClass().getDeclaredField("pid");
-            field.setAccessible(true);
-            this.pid = field.getLong(this.process);
-            field.setAccessible(false);
-        }
-        catch (Exception ignored) {}
+            this.pid = this.process.pid();
+        } catch (UnsupportedOperationException ignored) {}
     }
 
     public abstract boolean send(String line);
@@ -77,10 +118,134 @@ public abstract class IOWrapper implements Runnable {
      * @return True if write was successful, false otherwise
      */
     public boolean write(String line) {
+        return write(line, 0);
+    }
+
+    /**
+     * Sends the part of a line from given offset to the process,
+     * without copying it
+     * @param line Output line
+     * @param offset Index of the first character to send
+     * @return True if write was successful, false otherwise
+     */
+    public boolean write(String line, int offset) {
+        return write(line, offset, "");
+    }
+
+    /**
+     * Sends the part of a line from given offset to the process, followed
+     * by a suffix on the same line, without copying the line
+     * @param line Output line
+     * @param offset Index of the first character to send
+     * @param suffix Text to send after the line
+     * @return True if write was successful, false otherwise
+     */
+    public boolean write(String line, int offset, String suffix) {
         if (this.finished) return false;
 
+        if (this.recorder != null) {
+            recordWrite((line.substring(offset) + suffix + '\n').getBytes(StandardCharsets.UTF_8));
+        }
+
+        try {
+            this.inputStream.write(line, offset, line.length() - offset);
+            this.inputStream.write(suffix);
+            this.inputStream.write('\n');
+            if (this.holdingWrites) {
+                this.writerBuffered = true;
+            } else {
+                this.inputStream.flush();
+            }
+            this.writeTime = System.nanoTime();
+        } catch(IOException e) {
+            System.err.println("Writing to inputstream failed.");
+            finish();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Sends bytes to the process as they are, after anything still
+     * buffered by the writer
+     * @param parts Bytes to send, one after another
+     * @return True if write was successful, false otherwise
+     */
+    public boolean write(byte[]... parts) {
+        if (this.finished) return false;
+
+        if (this.recorder != null) {
+            recordWrite(parts);
+        }
+
+        try {
+            if (this.writerBuffered) {
+                this.inputStream.flush();
+                this.writerBuffered = false;
+            }
+            for (byte[] part : parts) {
+                this.rawInputStream.write(part);
+            }
+            if (!this.holdingWrites) {
+                this.rawInputStream.flush();
+            }
+            this.writeTime = System.nanoTime();
+        } catch(IOException e) {
+            System.err.println("Writing to inputstream failed.");
+            finish();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Makes all following writes stay buffered until flushWrites is
+     * called, so many writes reach the process at once
+     */
+    public void holdWrites() {
+        this.holdingWrites = true;
+    }
+
+    /**
+     * Sends everything written since holdWrites to the process and
+     * makes following writes be sent right away again
+     * @return True if write was successful, false otherwise
+     */
+    public boolean flushWrites() {
+        this.holdingWrites = false;
+        return flush();
+    }
+
+    private void recordWrite(byte[]... parts) {
+        if (this.holdingWrites) {
+            this.heldRecords.add(parts);
+        } else {
+            this.recorder.record(TrafficRecorder.WRITE, this.recordedProcess, parts);
+        }
+    }
+
+    /**
+     * Sends all buffered writes to the process
+     * @return True if write was successful, false otherwise
+     */
+    protected boolean flush() {
+        this.writerBuffered = false;
+        if (this.finished) {
+            this.heldRecords.clear();
+            return false;
+        }
+
+        // recorded now, when the process gets them, so a replay sends them at the same time
+        if (this.recorder != null) {
+            for (byte[][] parts : this.heldRecords) {
+                this.recorder.record(TrafficRecorder.WRITE, this.recordedProcess, parts);
+            }
+        }
+        this.heldRecords.clear();
+
         try {
-            this.inputStream.write(line + "\n");
             this.inputStream.flush();
         } catch(IOException e) {
             System.err.println("Writing to inputstream failed.");
@@ -92,33 +257,283 @@ public abstract class IOWrapper implements Runnable {
     }
 
     /**
-     * Waits until process returns a response and returns it. Only the
-     * first response after the request is processed, others are ignored.
+     * Opens a new request, all output before this is not seen as the
+     * response to it. Call before writing the request to the process.
+     * @return Sequence number of the new request
+     */
+    protected long openRequest() {
+        synchronized (this.responseLock) {
+            this.requestSequence++;
+            this.pendingSequence = this.requestSequence;
+            this.droppingLateLines = false;
+            this.response = null;
+            this.requestTime = System.nanoTime();
+
+            return this.requestSequence;
+        }
+    }
+
+    /**
+     * Called by the output gobbler for every line the process outputs.
+     * Lines after a request timed out are dropped as late responses, until
+     * the next request is opened. The first line after a request is the
+     * response to that request, other lines go to the message queue if
+     * there is one or are ignored.
+     * @param line Line read from the process
+     */
+    void receive(String line) {
+        if (this.recorder != null) {
+            this.recorder.record(TrafficRecorder.LINE, this.recordedProcess, line);
+        }
+
+        synchronized (this.responseLock) {
+            this.receivedLines++;
+            notifyAwaitedLines();
+
+            if (this.droppingLateLines) {
+                return;
+            }
+
+            if (this.pendingSequence >= 0) {
+                this.responseTime = System.nanoTime();
+                this.response = line;
+                this.responseSequence = this.pendingSequence;
+                this.pendingSequence = -1;
+                responseReceived();
+                this.responseLock.notifyAll();
+                return;
+            }
+        }
+
+        if (this.messageQueue != null) {
+            this.messageQueue.offer(new ReceivedLine(line, null, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Called on the reader thread when the response to the pending
+     * request is received, before it is handed to the waiting thread
+     */
+    protected void responseReceived() {}
+
+    /**
+     * Called by the output gobbler for every frame the process outputs
+     * that is not a text frame. These never answer a request, so they
+     * go to the message queue if there is one or are ignored.
+     * @param frame Frame read from the process
+     */
+    void receiveFrame(Frame frame) {
+        if (this.recorder != null) {
+            this.recorder.record(TrafficRecorder.FRAME, this.recordedProcess, frame.getHeader(), frame.getPayload());
+        }
+
+        synchronized (this.responseLock) {
+            this.receivedLines++;
+            notifyAwaitedLines();
+        }
+
+        if (this.messageQueue != null) {
+            this.messageQueue.offer(new ReceivedLine(null, frame, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Makes the output stream switch to frames after the given line
+     * @param line The line after which frames follow, null to not switch
+     */
+    protected void setFramingLine(String line) {
+        this.outputGobbler.setFramingLine(line);
+    }
+
+    /**
+     * Waits until process returns a response to given request and returns it.
+     * Only the first response after the request is processed, others are ignored.
+     * When the request times out, it is closed so that a late response is
+     * not mistaken for the response to the next request. The timeout counts
+     * from the moment the request was opened, so responses of requests sent
+     * to multiple processes at once can be collected one after another.
+     * @param sequence Sequence number of the request, as returned by openRequest
      * @param timeout Time before timeout
      * @return Process's response
      */
-    public String getResponse(long timeout) {
-        long timeStart = System.nanoTime();
-        String response;
+    public String getResponse(long sequence, long timeout) {
+        synchronized (this.responseLock) {
+            this.collectTime = System.nanoTime();
+            long deadline = this.requestTime + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+            while (this.responseSequence != sequence && this.pendingSequence == sequence) {
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0) {
+                    cancelRequest();
+                    this.requestDuration = System.nanoTime() - this.requestTime;
+                    break;
+                }
+
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this.responseLock, remaining);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    cancelRequest();
+                    this.requestDuration = System.nanoTime() - this.requestTime;
+                }
+            }
 
-        while (this.response == null) {
-            long timeElapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - timeStart);
-            
-            if (timeElapsed >= timeout) {
-                return handleResponseTimeout(timeout);
+            if (this.responseSequence == sequence) {
+                this.requestDuration = this.responseTime - this.requestTime;
+                this.answered = true;
+                String response = this.response;
+                this.response = null;
+                this.responseSequence = -1;
+
+                return response;
             }
+        }
+
+        return handleResponseTimeout(timeout);
+    }
+
+    /**
+     * @return Time in nanoseconds between opening the last request and
+     * receiving its response, or its timeout
+     */
+    protected long getRequestDuration() {
+        synchronized (this.responseLock) {
+            return this.requestDuration;
+        }
+    }
+
+    /**
+     * Closes the pending request without a response, lines the process
+     * outputs before the next request are seen as late responses to it
+     */
+    private void cancelRequest() {
+        this.pendingSequence = -1;
+        this.droppingLateLines = true;
+        this.answered = false;
+    }
+
+    /**
+     * @return The nanoTime the last request was opened
+     */
+    protected long getRequestTime() {
+        synchronized (this.responseLock) {
+            return this.requestTime;
+        }
+    }
 
-            try { Thread.sleep(2); } catch (InterruptedException ignored) {}
+    /**
+     * @return True if the last finished request got a response, false if it timed out
+     */
+    protected boolean isAnswered() {
+        synchronized (this.responseLock) {
+            return this.answered;
         }
-        
-        if (this.inputQueue != null) {
-            this.inputQueue.remove(this.response);
+    }
+
+    /**
+     * @return The nanoTime the last response was received
+     */
+    protected long getResponseTime() {
+        synchronized (this.responseLock) {
+            return this.responseTime;
         }
+    }
 
-        response = this.response;
-        this.response = null;
-        
-        return response;
+    /**
+     * @return The nanoTime the last write to the process finished
+     */
+    protected long getWriteTime() {
+        return this.writeTime;
+    }
+
+    /**
+     * @return The nanoTime the response to the last finished request
+     * started to be collected, which can be after it was received
+     */
+    protected long getCollectTime() {
+        synchronized (this.responseLock) {
+            return this.collectTime;
+        }
+    }
+
+    /**
+     * @return The nanoTime the last message taken from the message queue was received
+     */
+    public long getMessageTime() {
+        return this.messageTime;
+    }
+
+    /**
+     * Waits for the next line in the message queue
+     * @param timeout Time before timeout
+     * @return The next message, null if there is a timeout
+     */
+    protected String pollMessage(long timeout) {
+        ReceivedLine message = pollReceived(timeout);
+
+        return message != null ? message.line : null;
+    }
+
+    /**
+     * Waits for the next line or frame in the message queue
+     * @param timeout Time before timeout
+     * @return The next message, null if there is a timeout
+     */
+    protected ReceivedLine pollReceived(long timeout) {
+        ReceivedLine message = null;
+
+        try {
+            message = this.messageQueue.poll(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (message == null) {
+            return null;
+        }
+
+        this.messageTime = message.time;
+        return message;
+    }
+
+    /**
+     * Waits until the process has output given number of lines
+     * and frames in total
+     * @param count Number of lines to wait for
+     * @param timeout Time before timeout
+     * @return True if the process output the lines in time
+     */
+    boolean awaitReceivedLines(long count, long timeout) {
+        synchronized (this.responseLock) {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            this.awaitedLines = count;
+
+            try {
+                while (this.receivedLines < count) {
+                    long remaining = deadline - System.nanoTime();
+                    if (remaining <= 0) {
+                        return false;
+                    }
+
+                    TimeUnit.NANOSECONDS.timedWait(this.responseLock, remaining);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            } finally {
+                this.awaitedLines = -1;
+            }
+
+            return true;
+        }
+    }
+
+    // call while holding the response lock
+    private void notifyAwaitedLines() {
+        if (this.awaitedLines >= 0 && this.receivedLines >= this.awaitedLines) {
+            this.responseLock.notifyAll();
+        }
     }
 
     /**
@@ -138,11 +553,15 @@ public abstract class IOWrapper implements Runnable {
             return this.exitStatus;
         }
 
-        // stop io streams
-        try { this.inputStream.close(); } catch (IOException ignored) {}
+        // stop io streams, reading first so output after closing the input is not logged
         this.outputGobbler.finish();
         this.errorGobbler.finish();
-        
+        try { this.inputStream.close(); } catch (IOException ignored) {}
+
+        // take a last sample before the process is gone
+        ProcessSampler.getShared().unregister(this);
+        sample();
+
         // end the process
         this.process.destroy();
         try { this.process.waitFor(); } catch (InterruptedException ignored) {}
@@ -153,6 +572,134 @@ public abstract class IOWrapper implements Runnable {
         return this.exitStatus;
     }
     
+    /**
+     * @return True if the process and the threads reading its output are still running
+     */
+    public boolean isAlive() {
+        return !this.finished && this.process.isAlive()
+                && this.outputGobbler.isAlive() && this.errorGobbler.isAlive();
+    }
+
+    /**
+     * @return True if the process timed out on a response
+     */
+    public boolean isErrored() {
+        return this.errored;
+    }
+
+    /**
+     * @return Number of lines the process has output so far
+     */
+    protected long getReceivedLines() {
+        synchronized (this.responseLock) {
+            return this.receivedLines;
+        }
+    }
+
+    /**
+     * Removes all the process output stored so far, used when the
+     * process is reused for another match
+     */
+    protected void clearStreams() {
+        this.recorder = null;
+        this.outputGobbler.clear();
+        this.errorGobbler.clear();
+        this.processStats.reset();
+        this.latency.reset();
+        this.startTime = System.nanoTime();
+        this.spawnDuration = 0;
+        this.readyDuration = -1;
+    }
+
+    /**
+     * Records all following traffic of the process
+     * @param recorder The recorder, null to stop recording
+     * @param process Bot id or TrafficRecorder.ENGINE
+     */
+    public void setRecorder(TrafficRecorder recorder, int process) {
+        this.recorder = recorder;
+        this.recordedProcess = process;
+    }
+
+    /**
+     * @param spawnDuration Nanoseconds it took to start the process
+     */
+    public void setSpawnDuration(long spawnDuration) {
+        this.spawnDuration = spawnDuration;
+    }
+
+    /**
+     * @return Nanoseconds it took to start the process, 0 if it was reused
+     */
+    public long getSpawnDuration() {
+        return this.spawnDuration;
+    }
+
+    /**
+     * Marks the process as ready to play
+     */
+    protected void markReady() {
+        this.readyDuration = System.nanoTime() - this.startTime;
+    }
+
+    /**
+     * @return Nanoseconds from the start of the process until it was ready,
+     * -1 if it isn't known to be ready
+     */
+    public long getReadyDuration() {
+        return this.readyDuration;
+    }
+
+    /**
+     * @return Resource usage of the process as of the last sample
+     */
+    ProcessStats getProcessStats() {
+        return this.processStats;
+    }
+
+    /**
+     * @return Latency of the turn phases measured for this process
+     */
+    public LatencyStats getLatencyStats() {
+        return this.latency;
+    }
+
+    /**
+     * Samples the process now if it is still running
+     * @return Resource usage of the process
+     */
+    public ProcessStats sampleProcessStats() {
+        if (!this.finished) {
+            sample();
+        }
+
+        return this.processStats;
+    }
+
+    /**
+     * Reads the current resource usage of the process into its stats,
+     * from /proc or, for a bot in this JVM, from its threads
+     */
+    void sample() {
+        if (this.process instanceof InJvmProcess) {
+            ((InJvmProcess) this.process).sample(this.processStats);
+        } else {
+            ProcessSampler.sample(this.pid, this.processStats);
+        }
+    }
+
+    /**
+     * @return User and system CPU time of the process and its children
+     * in nanoseconds, -1 if it can't be read
+     */
+    protected long readCpuTime() {
+        if (this.process instanceof InJvmProcess) {
+            return ((InJvmProcess) this.process).getCpuTime();
+        }
+
+        return CpuClock.read(this.pid);
+    }
+
     /**
      * @return The process
      */
@@ -161,14 +708,14 @@ public abstract class IOWrapper implements Runnable {
     }
     
     /**
-     * @return The complete stdOut of the process
+     * @return The stdOut of the process, the middle part is left out if it is too long
      */
     public String getStdout() {
         return this.outputGobbler.getData();
     }
     
     /**
-     * @return The complete stdErr from the process
+     * @return The stdErr from the process, the middle part is left out if it is too long
      */
     public String getStderr() {
         return this.errorGobbler.getData();
@@ -180,10 +727,42 @@ public abstract class IOWrapper implements Runnable {
     @Override
     public void run() {
         this.outputGobbler.start();
-        this.errorGobbler.start();
+
+        if (this.process instanceof ErrorFileProcess) {
+            this.errorGobbler.tail();
+        } else {
+            this.errorGobbler.start();
+        }
+
+        if (this.pid >= 0) {
+            ProcessSampler.getShared().register(this, this.context.getSampleInterval());
+        }
     }
 
     public void setTimebank(long timebank) {
         this.timebank = timebank;
     }
+
+    /**
+     * A line or frame from the process with the nanoTime it was received
+     */
+    protected static class ReceivedLine {
+
+        private final String line;
+        private final Frame frame;
+        private final long time;
+
+        ReceivedLine(String line, Frame frame, long time) {
+            this.line = line;
+            this.frame = frame;
+            this.time = time;
+        }
+
+        /**
+         * @return The frame, a text frame if a line was received
+         */
+        protected Frame toFrame() {
+            return this.frame != null ? this.frame : Frame.text(this.line);
+        }
+    }
 }
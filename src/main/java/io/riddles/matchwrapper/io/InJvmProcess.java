@@ -0,0 +1,279 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * InJvmProcess class
+ *
+ * Runs the main method of a Java bot in the wrapper's JVM, as if it was a
+ * process. The bot is loaded from its jar in a class loader of its own
+ * that only shares the JDK with the wrapper, and runs in a thread group
+ * of its own. Its System.in, System.out and System.err are pipes in memory,
+ * so it can be used by an IOPlayer like any other process. The CPU time
+ * and allocated bytes of the bot are those of the threads in its group.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class InJvmProcess extends Process {
+
+    private static final AtomicInteger COUNTER = new AtomicInteger();
+    private static final long FINISH_TIMEOUT = 1000L; // ms a bot gets to stop after its input is closed
+
+    private final MemoryPipe stdin = new MemoryPipe();
+    private final MemoryPipe stdout = new MemoryPipe();
+    private final MemoryPipe stderr = new MemoryPipe();
+    private final PrintStream stdoutPrinter = new PrintStream(this.stdout.getOutputStream(), true);
+    private final PrintStream stderrPrinter = new PrintStream(this.stderr.getOutputStream(), true);
+    private final URLClassLoader classLoader;
+    private final ThreadGroup group;
+    private final Thread main;
+    private volatile int exitValue = -1;
+
+    // CPU time and allocated bytes of the bot's threads, including ended ones
+    private final Map<Long, long[]> threadUsage = new HashMap<>();
+    private long endedCpuTime;
+    private long endedAllocatedBytes;
+
+    private InJvmProcess(URLClassLoader classLoader, Method mainMethod, String[] args) {
+        this.classLoader = classLoader;
+        this.group = new ThreadGroup("bot-" + COUNTER.incrementAndGet());
+        this.main = new Thread(this.group, () -> runMain(mainMethod, args), this.group.getName() + "-main");
+        this.main.setDaemon(true);
+        this.main.setContextClassLoader(classLoader);
+    }
+
+    /**
+     * Loads the main class of a bot from its jar and starts its main method
+     * @param jarPath Path of the bot's jar
+     * @param mainClass Name of the class with the main method
+     * @param args Arguments for the main method
+     * @return The running bot
+     * @throws IOException if the jar or the main method can't be loaded
+     */
+    public static InJvmProcess start(String jarPath, String mainClass, String[] args) throws IOException {
+        ThreadStdio.install();
+
+        URL jar = new File(jarPath).toURI().toURL();
+        URLClassLoader classLoader = new URLClassLoader(new URL[] { jar }, ClassLoader.getPlatformClassLoader());
+
+        Method mainMethod;
+        try {
+            mainMethod = Class.forName(mainClass, true, classLoader).getMethod("main", String[].class);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            classLoader.close();
+            throw new IOException(String.format("Failed to load main class %s from %s", mainClass, jarPath), ex);
+        }
+
+        InJvmProcess process = new InJvmProcess(classLoader, mainMethod, args);
+        process.main.start();
+
+        return process;
+    }
+
+    private void runMain(Method mainMethod, String[] args) {
+        ThreadStdio.bind(this);
+        int exitValue = 0;
+
+        try {
+            mainMethod.invoke(null, (Object) args);
+        } catch (InvocationTargetException ex) {
+            ex.getCause().printStackTrace(this.stderrPrinter);
+            exitValue = 1;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            ex.printStackTrace(this.stderrPrinter);
+            exitValue = 1;
+        } finally {
+            this.stdoutPrinter.flush();
+            this.stdout.closeWrite();
+            this.stderr.closeWrite();
+            this.exitValue = exitValue;
+        }
+    }
+
+    InputStream getStdin() {
+        return this.stdin.getInputStream();
+    }
+
+    PrintStream getStdout() {
+        return this.stdoutPrinter;
+    }
+
+    PrintStream getStderr() {
+        return this.stderrPrinter;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return this.stdin.getOutputStream();
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return this.stdout.getInputStream();
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+        return this.stderr.getInputStream();
+    }
+
+    /**
+     * Waits until the main method of the bot has returned, at most a
+     * second after it was destroyed, after which the bot's threads are
+     * left behind as daemon threads
+     * @return Exit value of the bot, 1 if it's still running
+     * @throws InterruptedException if interrupted while waiting
+     */
+    @Override
+    public int waitFor() throws InterruptedException {
+        this.main.join(this.stdin.isWriteClosed() ? FINISH_TIMEOUT : 0);
+
+        return isAlive() ? 1 : this.exitValue;
+    }
+
+    @Override
+    public boolean waitFor(long timeout, TimeUnit unit) throws InterruptedException {
+        this.main.join(Math.max(unit.toMillis(timeout), 1));
+
+        return !isAlive();
+    }
+
+    @Override
+    public int exitValue() {
+        if (isAlive()) {
+            throw new IllegalThreadStateException("Bot is still running");
+        }
+
+        return this.exitValue;
+    }
+
+    /**
+     * Closes the input of the bot and interrupts its threads. A bot can't
+     * be killed, it has to stop by itself on the end of its input.
+     */
+    @Override
+    public void destroy() {
+        this.stdin.closeWrite();
+        this.stdout.closeRead();
+        this.stderr.closeRead();
+        this.group.interrupt();
+
+        try {
+            this.classLoader.close();
+        } catch (IOException ignored) {}
+    }
+
+    @Override
+    public boolean isAlive() {
+        return this.main.isAlive();
+    }
+
+    /**
+     * @return User and system CPU time of all threads of the bot in
+     * nanoseconds, -1 if the JVM doesn't measure thread CPU time
+     */
+    public long getCpuTime() {
+        return readThreadUsage()[0];
+    }
+
+    /**
+     * @return Bytes allocated by all threads of the bot,
+     * -1 if the JVM doesn't measure thread allocation
+     */
+    public long getAllocatedBytes() {
+        return readThreadUsage()[1];
+    }
+
+    /**
+     * Stores a sample of the bot's resource usage, as far as it
+     * can be measured in the JVM
+     * @param stats Stats to update
+     */
+    void sample(ProcessStats stats) {
+        long[] usage = readThreadUsage();
+
+        stats.update(0, 0, TimeUnit.NANOSECONDS.toMillis(Math.max(usage[0], 0)),
+                this.stdin.getWritten(), this.stdout.getWritten() + this.stderr.getWritten());
+        stats.updateAllocatedBytes(usage[1]);
+    }
+
+    /**
+     * Reads the CPU time and allocated bytes of all live threads of the bot,
+     * adding the last known values of threads that have ended
+     * @return CPU time in nanoseconds and allocated bytes, -1 if not measured
+     */
+    private synchronized long[] readThreadUsage() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean allocationBean = bean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) bean : null;
+
+        Thread[] threads = new Thread[this.group.activeCount() + 8];
+        int count = this.group.enumerate(threads);
+        Set<Long> alive = new HashSet<>();
+
+        for (int i = 0; i < count; i++) {
+            long id = threads[i].getId();
+            long cpuTime = bean.getThreadCpuTime(id);
+            long allocated = allocationBean != null ? allocationBean.getThreadAllocatedBytes(id) : -1;
+
+            if (cpuTime >= 0) {
+                this.threadUsage.put(id, new long[] { cpuTime, allocated });
+                alive.add(id);
+            }
+        }
+
+        this.threadUsage.entrySet().removeIf(entry -> {
+            if (alive.contains(entry.getKey())) return false;
+
+            this.endedCpuTime += entry.getValue()[0];
+            this.endedAllocatedBytes += Math.max(entry.getValue()[1], 0);
+            return true;
+        });
+
+        long cpuTime = this.endedCpuTime;
+        long allocated = this.endedAllocatedBytes;
+        for (long[] usage : this.threadUsage.values()) {
+            cpuTime += usage[0];
+            allocated += Math.max(usage[1], 0);
+        }
+
+        boolean cpuMeasured = bean.isThreadCpuTimeSupported() && bean.isThreadCpuTimeEnabled();
+        boolean allocationMeasured = allocationBean != null && allocationBean.isThreadAllocatedMemorySupported()
+                && allocationBean.isThreadAllocatedMemoryEnabled();
+
+        return new long[] { cpuMeasured ? cpuTime : -1, allocationMeasured ? allocated : -1 };
+    }
+}
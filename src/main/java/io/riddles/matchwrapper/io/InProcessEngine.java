@@ -0,0 +1,287 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import io.riddles.matchwrapper.MatchContext;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * InProcessEngine class
+ *
+ * Runs an engine from a jar in the wrapper's JVM, so messages between the
+ * engine and the wrapper are method calls instead of lines over a pipe.
+ * The jar is loaded in a class loader of its own that only shares the
+ * JDK classes with the wrapper, so the engine can use other versions of
+ * the same libraries. The engine class must implement Consumer<String>,
+ * which is given every line the engine would read from stdin, and have a
+ * public constructor taking a Consumer<String> for the lines it would
+ * write to stdout. Lines are given to the engine on a thread of its own,
+ * so an engine that doesn't return within the engine timeout is given up
+ * on instead of hanging the match. The engine can output from any thread.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class InProcessEngine implements EngineHandle {
+
+    private MatchContext context;
+    private JSONObject configuration;
+    private URLClassLoader classLoader;
+    private Consumer<String> engine;
+    private ExecutorService engineThread;
+    private BlockingQueue<Message> messages;
+    private long timebank;
+    private long messageTime; // nanoTime the last message taken from the queue was output
+    private long sendTime; // nanoTime the last message to the engine was given
+    private boolean thinking; // true if the engine got input after its previous message
+    private boolean payloadFiles;
+    private boolean finished;
+    private boolean errored;
+    private LatencyStats latency;
+
+    private InProcessEngine(MatchContext context, JSONObject configuration) {
+        this.context = context;
+        this.configuration = configuration;
+        this.messages = new LinkedBlockingQueue<>();
+        this.engineThread = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "in-process-engine");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timebank = context.getEngineTimeout();
+        this.latency = new LatencyStats();
+    }
+
+    /**
+     * Loads the engine class from a jar and creates the engine
+     * @param jarPath Path of the engine jar
+     * @param className Name of the engine class
+     * @param configuration Configuration to send to the engine
+     * @param context Settings of the match
+     * @return The engine
+     * @throws IOException if the engine can't be loaded or created
+     */
+    public static InProcessEngine load(String jarPath, String className,
+                                       JSONObject configuration, MatchContext context) throws IOException {
+        InProcessEngine handle = new InProcessEngine(context, configuration);
+        URL jar = new File(jarPath).toURI().toURL();
+        handle.classLoader = new URLClassLoader(new URL[] { jar }, ClassLoader.getPlatformClassLoader());
+
+        try {
+            Class<?> engineClass = Class.forName(className, true, handle.classLoader);
+            if (!Consumer.class.isAssignableFrom(engineClass)) {
+                throw new IOException(String.format("%s does not implement Consumer<String>", className));
+            }
+
+            Constructor<?> constructor = engineClass.getConstructor(Consumer.class);
+            Consumer<String> output = handle::output;
+
+            @SuppressWarnings("unchecked")
+            Consumer<String> engine = (Consumer<String>) constructor.newInstance(output);
+            handle.engine = engine;
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            handle.engineThread.shutdown();
+            handle.classLoader.close();
+            throw new IOException(String.format("Failed to load engine %s from %s", className, jarPath), ex);
+        } catch (IOException ex) {
+            handle.engineThread.shutdown();
+            handle.classLoader.close();
+            throw ex;
+        }
+
+        return handle;
+    }
+
+    public String initialize() throws IOException {
+        return ask("initialize");
+    }
+
+    /**
+     * Gives a line to the engine and waits until the engine has handled it,
+     * at most the engine timeout. After a timeout the engine is interrupted
+     * and gets no more lines.
+     * @param message Message to send
+     * @return True if the engine handled the message, false otherwise
+     */
+    public boolean send(String message) {
+        if (this.finished || this.engineThread.isShutdown()) return false;
+
+        if (!this.context.isEngineIOSuppressed()) {
+            System.out.println(String.format("Engine in: '%s'", message));
+        }
+
+        this.sendTime = System.nanoTime();
+        this.thinking = true;
+
+        Future<?> handled = this.engineThread.submit(() -> this.engine.accept(message));
+
+        try {
+            handled.get(this.timebank, TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            System.err.println(String.format("Engine failed on '%s': %s", message, ex.getCause()));
+            this.errored = true;
+            return false;
+        } catch (TimeoutException ex) {
+            System.err.println(String.format("Engine took too long on '%s'! (%dms)", message, this.timebank));
+            this.errored = true;
+            this.engineThread.shutdownNow();
+            return false;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            handled.cancel(true);
+            return false;
+        }
+
+        return true;
+    }
+
+    public String ask(String line) throws IOException {
+        send(line);
+
+        return getMessage();
+    }
+
+    public String getMessage() {
+        Message message;
+
+        try {
+            message = this.messages.poll(this.timebank, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            message = null;
+        }
+
+        if (message == null) {
+            System.err.println(String.format("Engine took too long! (%dms)", this.timebank));
+            this.errored = true;
+            return "";
+        }
+
+        this.messageTime = message.time;
+
+        if (this.thinking) {
+            this.latency.record(LatencyStats.THINK, this.messageTime - this.sendTime);
+            this.thinking = false;
+        }
+
+        if (!this.context.isEngineIOSuppressed()) {
+            System.out.println(String.format("Engine out: '%s'", message.line));
+        }
+
+        return message.line;
+    }
+
+    /**
+     * In-process engines don't use frames
+     * @return Always null
+     */
+    public Frame getFrame() {
+        return null;
+    }
+
+    public long getMessageTime() {
+        return this.messageTime;
+    }
+
+    public boolean isFramed() {
+        return false;
+    }
+
+    /**
+     * @param payloadFiles True if the engine writes the game and details to a
+     *                     file given by the wrapper, instead of sending them
+     */
+    public void setPayloadFiles(boolean payloadFiles) {
+        this.payloadFiles = payloadFiles;
+    }
+
+    public boolean usesPayloadFiles() {
+        return this.payloadFiles;
+    }
+
+    /**
+     * Sends the configuration of the match to the engine
+     * @return True if the engine handled the configuration, false otherwise
+     */
+    public boolean sendConfiguration() {
+        return send("configuration " + this.configuration.toString());
+    }
+
+    /**
+     * @return Think times of the engine
+     */
+    public LatencyStats getLatencyStats() {
+        return this.latency;
+    }
+
+    /**
+     * Closes the engine, if it's AutoCloseable, and its class loader
+     * @return 1 if the engine failed or timed out, 0 otherwise
+     */
+    public int finish() {
+        if (this.finished) {
+            return this.errored ? 1 : 0;
+        }
+
+        this.finished = true;
+        this.engineThread.shutdownNow();
+
+        try {
+            if (this.engine instanceof AutoCloseable) {
+                ((AutoCloseable) this.engine).close();
+            }
+            this.classLoader.close();
+        } catch (Exception ex) {
+            System.err.println("Closing engine failed: " + ex);
+        }
+
+        System.out.println("Engine shut down.");
+
+        return this.errored ? 1 : 0;
+    }
+
+    // called by the engine, on any thread
+    private void output(String line) {
+        this.messages.offer(new Message(line, System.nanoTime()));
+    }
+
+    private static class Message {
+
+        private final String line;
+        private final long time;
+
+        private Message(String line, long time) {
+            this.line = line;
+            this.time = time;
+        }
+    }
+}
@@ -17,92 +17,355 @@
 
 package io.riddles.matchwrapper.io;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
 
 /**
  * InputStreamGobbler class
  *
- * Keeps trying to read output from given process input/error stream. Stores read value and
- * sets a response to read value if it is not the error stream.
+ * Reads output from given process input/error stream. Hands every line to
+ * the wrapper if it is not the error stream and stores it in a log of limited size. The
+ * stream is always read until it ends, no matter how much is stored. The gobbler has
+ * no thread of its own, it is read by a thread of the shared StreamReader, or tailed by
+ * it if the stream is a file that the process writes to. After the engine agrees to
+ * use framing, the rest of its output is read as frames instead of lines.
  * 
  * @author Jim van Eeden <jim@riddles.io>
  */
-public class InputStreamGobbler extends Thread {
+public class InputStreamGobbler {
 
-    private final long BUFFER_LIMIT = 1000000; // 1 Mb
-    
     private InputStream inputStream;
     private IOWrapper wrapper;
     private String type;
-    private StringBuffer buffer;
-    private boolean finished;
+    private OutputLog log;
+    private volatile boolean finished;
+    private volatile boolean ended;
+    private boolean tailed; // true if the stream is a file that is read up to its end now and then
+
+    private CharsetDecoder decoder;
+    private ByteBuffer bytes;
+    private CharBuffer chars;
+    private StringBuilder line;
+    private boolean skipLineFeed;
 
-    InputStreamGobbler(InputStream inputStream, IOWrapper wrapper, String type) {
+    private volatile String framingLine; // line after which the stream switches to frames
+    private boolean framing;
+    private byte[] frameHeader;
+    private int frameHeaderLength;
+    private byte[] framePayload; // payload being read, null while reading a header
+    private int framePayloadLength;
+
+    InputStreamGobbler(InputStream inputStream, IOWrapper wrapper, String type, int logLimit) {
         this.inputStream = inputStream;
         this.wrapper = wrapper;
         this.type = type;
-        this.buffer = new StringBuffer();
+        this.log = new OutputLog(logLimit);
         this.finished = false;
+        this.ended = false;
+
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.bytes = ByteBuffer.allocate(StreamReader.BUFFER_SIZE + 16);
+        this.chars = CharBuffer.allocate(StreamReader.BUFFER_SIZE);
+        this.line = new StringBuilder();
     }
 
     /**
-     * Read input from stream and store
+     * Start reading the stream
      */
-    public void run() {
-        String lastLine;
+    public void start() {
+        StreamReader.getShared().register(this);
+    }
+
+    /**
+     * Start tailing the stream, which must be a file the process writes to
+     */
+    public void tail() {
+        this.tailed = true;
+        StreamReader.getShared().tail(this);
+    }
+
+    /**
+     * Reads what the process wrote to the tailed file since the last read,
+     * without blocking. Ends the gobbler once the process has ended and
+     * everything it wrote is read, or when the gobbler is finished.
+     * @param buffer Buffer to read into
+     * @return True if the process might write more
+     */
+    synchronized boolean readAvailable(byte[] buffer) {
+        if (this.ended) return false;
+
+        // checked before reading, so everything written before the process ended is read
+        boolean exited = !this.wrapper.getProcess().isAlive();
 
         try {
-            InputStreamReader inputStreamReader = new InputStreamReader(this.inputStream);
-            BufferedReader bufferedReader = new BufferedReader(inputStreamReader);
+            int count;
+            while (!this.finished && (count = this.inputStream.read(buffer, 0, buffer.length)) > 0) {
+                consume(buffer, 0, count);
+            }
+        } catch (IOException ex) {
+            if (!this.finished) {
+                System.err.println(String.format("Read failed: %s, type: %s", ex, this.type));
+            }
+            exited = true;
+        }
 
-            while (!this.finished && (lastLine = bufferedReader.readLine()) != null) {
+        if (this.finished || exited) {
+            end();
+            return false;
+        }
 
-                // Catches bots that return way too much (infinite loop)
-                if (this.buffer.length() >= BUFFER_LIMIT) {
-                    String message = String.format(
-                            "... %s limit of %s Mb reached. " +
-                            "Processing of stream stopped.",
-                            this.type,
-                            BUFFER_LIMIT / 1000000
-                    );
+        return true;
+    }
 
-                    this.buffer.append(message);
-                    finish();
-                    break;
+    /**
+     * Reads the stream until it ends or the gobbler is finished, blocking
+     * while there is no data. Called by the reader thread of this gobbler.
+     * @param buffer Buffer to read into
+     */
+    void read(byte[] buffer) {
+        try {
+            int count;
+            while (!this.finished && (count = this.inputStream.read(buffer, 0, buffer.length)) >= 0) {
+                if (!this.finished) {
+                    consume(buffer, 0, count);
                 }
+            }
+        } catch (IOException ex) {
+            if (!this.finished) {
+                System.err.println(String.format("Read failed: %s, type: %s", ex, this.type));
+            }
+        } finally {
+            end();
+        }
+    }
 
-                if (this.type.equals("output")) {
-                   this.wrapper.response = lastLine;
-                   if (this.wrapper.inputQueue != null) {
-                       this.wrapper.inputQueue.add(lastLine);
-                   }
+    /**
+     * Handles read bytes as lines or frames. While a switch to frames is
+     * expected, lines are decoded one at a time, so that the bytes after
+     * the switch are never decoded as text.
+     */
+    private void consume(byte[] buffer, int offset, int count) {
+        if (this.framing) {
+            readFrames(buffer, offset, count);
+            return;
+        }
+
+        int end = offset + count;
+        if (this.framingLine != null) {
+            for (int i = offset; i < end; i++) {
+                if (buffer[i] != '\n') continue;
+
+                decode(buffer, offset, i + 1 - offset, false);
+                offset = i + 1;
+
+                if (this.framing) {
+                    readFrames(buffer, offset, end - offset);
+                    return;
                 }
+            }
+        }
 
-                this.buffer.append(lastLine).append("\n");
+        decode(buffer, offset, end - offset, false);
+    }
+
+    /**
+     * Decodes read bytes and hands over every completed line
+     */
+    private void decode(byte[] buffer, int offset, int count, boolean endOfInput) {
+        this.bytes.put(buffer, offset, count);
+        this.bytes.flip();
+
+        while (true) {
+            boolean overflow = this.decoder.decode(this.bytes, this.chars, endOfInput).isOverflow();
+            if (endOfInput && !overflow) {
+                overflow = this.decoder.flush(this.chars).isOverflow();
             }
-            try {
-                bufferedReader.close();
-            } catch (IOException ignored) {}
 
-        } catch (IOException ex) {
-            System.err.println(String.format("Readline failed: %s, type: %s", ex, this.type));
+            this.chars.flip();
+            splitLines();
+            this.chars.clear();
+
+            if (!overflow) break;
+        }
+
+        this.bytes.compact();
+    }
+
+    /**
+     * Splits decoded characters on \n, \r or \r\n like BufferedReader.readLine
+     */
+    private void splitLines() {
+        char[] array = this.chars.array();
+        int end = this.chars.limit();
+        int lineStart = 0;
+
+        for (int i = 0; i < end; i++) {
+            char c = array[i];
+
+            if (this.skipLineFeed) {
+                this.skipLineFeed = false;
+                if (c == '\n') {
+                    lineStart = i + 1;
+                    continue;
+                }
+            }
+
+            if (c == '\n' || c == '\r') {
+                this.line.append(array, lineStart, i - lineStart);
+                handleLine(this.line.toString());
+                this.line.setLength(0);
+                this.skipLineFeed = c == '\r';
+                lineStart = i + 1;
+            }
+        }
+
+        this.line.append(array, lineStart, end - lineStart);
+    }
+
+    private void handleLine(String lastLine) {
+        if (lastLine.equals(this.framingLine)) {
+            this.framingLine = null;
+            this.framing = true;
+            this.frameHeader = new byte[Frame.HEADER_SIZE];
+        }
+
+        if (this.type.equals("output")) {
+            this.wrapper.receive(lastLine);
         }
+
+        this.log.append(lastLine);
+    }
+
+    /**
+     * Reads frames from the read bytes, a frame can be spread over multiple reads
+     */
+    private void readFrames(byte[] buffer, int offset, int count) {
+        int end = offset + count;
+
+        while (offset < end) {
+            if (this.framePayload == null) {
+                int headerPart = Math.min(Frame.HEADER_SIZE - this.frameHeaderLength, end - offset);
+                System.arraycopy(buffer, offset, this.frameHeader, this.frameHeaderLength, headerPart);
+                this.frameHeaderLength += headerPart;
+                offset += headerPart;
+
+                if (this.frameHeaderLength < Frame.HEADER_SIZE) return;
+
+                int payloadSize = ByteBuffer.wrap(this.frameHeader, 5, 4).getInt();
+                if (payloadSize < 0 || payloadSize > Frame.MAX_PAYLOAD_SIZE) {
+                    System.err.println(String.format("Invalid frame size: %d, type: %s", payloadSize, this.type));
+                    finish();
+                    return;
+                }
+
+                this.framePayload = new byte[payloadSize];
+                this.framePayloadLength = 0;
+            }
+
+            int payloadPart = Math.min(this.framePayload.length - this.framePayloadLength, end - offset);
+            System.arraycopy(buffer, offset, this.framePayload, this.framePayloadLength, payloadPart);
+            this.framePayloadLength += payloadPart;
+            offset += payloadPart;
+
+            if (this.framePayloadLength == this.framePayload.length) {
+                ByteBuffer header = ByteBuffer.wrap(this.frameHeader);
+                handleFrame(new Frame(header.get(), header.getInt(), this.framePayload));
+                this.framePayload = null;
+                this.frameHeaderLength = 0;
+            }
+        }
+    }
+
+    private void handleFrame(Frame frame) {
+        if (frame.getType() == Frame.TEXT) {
+            handleLine(frame.getText());
+            return;
+        }
+
+        if (this.type.equals("output")) {
+            this.wrapper.receiveFrame(frame);
+        }
+
+        this.log.append(frame.toString());
+    }
+
+    /**
+     * Makes the stream switch to frames after the given line. The line
+     * itself is still handled as a line.
+     * @param line The line after which frames follow, null to not switch
+     */
+    void setFramingLine(String line) {
+        this.framingLine = line;
+    }
+
+    /**
+     * Hands over the last unterminated line, if any, and closes the stream
+     */
+    private void end() {
+        if (!this.finished && !this.framing) {
+            decode(new byte[0], 0, 0, true);
+
+            if (this.line.length() > 0) {
+                handleLine(this.line.toString());
+                this.line.setLength(0);
+            }
+        }
+
+        try {
+            this.inputStream.close();
+        } catch (IOException ignored) {}
+
+        this.ended = true;
+    }
+
+    /**
+     * @return True if the stream has not ended yet
+     */
+    public boolean isAlive() {
+        return !this.ended;
     }
     
     /**
-     * @return All the data read by this InputStreamGobbler
+     * @return The start and end of the data read by this InputStreamGobbler
      */
     public String getData() {
-        return buffer.toString();
+        if (this.tailed) {
+            readAvailable(new byte[StreamReader.BUFFER_SIZE]);
+        }
+
+        return this.log.getData();
     }
-    
+
+    /**
+     * Removes all data read so far
+     */
+    public void clear() {
+        if (this.tailed) {
+            readAvailable(new byte[StreamReader.BUFFER_SIZE]);
+        }
+
+        this.log.clear();
+    }
+
     /**
      * Stop running
      */
     public void finish() {
+        if (this.tailed) {
+            synchronized (this) {
+                readAvailable(new byte[StreamReader.BUFFER_SIZE]);
+                this.finished = true;
+            }
+            return;
+        }
+
         this.finished = true;
     }
 }
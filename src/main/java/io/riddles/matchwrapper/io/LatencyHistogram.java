@@ -0,0 +1,142 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.util.Arrays;
+
+/**
+ * LatencyHistogram class
+ *
+ * Stores durations in nanoseconds as counts in a fixed array of buckets,
+ * so recording never allocates. Values below 64ns are exact, larger ones
+ * are put in one of 32 buckets per power of two, which keeps percentiles
+ * within about 3% of the real value. The maximum is always exact.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_SHIFT = 40; // values up to ~2^46ns (19 hours) get their own bucket
+
+    private int[] counts;
+    private long count;
+    private long total;
+    private long max;
+
+    public LatencyHistogram() {
+        this.counts = new int[(MAX_SHIFT + 2) * SUB_BUCKETS];
+    }
+
+    /**
+     * Stores a duration, negative durations are stored as 0
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+
+        this.counts[indexOf(value)]++;
+        this.count++;
+        this.total += value;
+        this.max = Math.max(this.max, value);
+    }
+
+    /**
+     * Adds all durations stored in another histogram to this one
+     * @param other Histogram to add
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] += other.counts[i];
+        }
+
+        this.count += other.count;
+        this.total += other.total;
+        this.max = Math.max(this.max, other.max);
+    }
+
+    /**
+     * @param percentile Percentile between 0 and 100
+     * @return Duration in nanoseconds that given percentage of the stored
+     * durations is smaller than or equal to, 0 if nothing is stored
+     */
+    public long getPercentile(double percentile) {
+        if (this.count == 0) return 0;
+
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * this.count));
+        long seen = 0;
+
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+
+            if (seen >= target) {
+                return Math.min(valueOf(i), this.max);
+            }
+        }
+
+        return this.max;
+    }
+
+    public long getCount() {
+        return this.count;
+    }
+
+    public long getTotal() {
+        return this.total;
+    }
+
+    public long getMax() {
+        return this.max;
+    }
+
+    /**
+     * Removes all stored durations
+     */
+    public void reset() {
+        Arrays.fill(this.counts, 0);
+        this.count = 0;
+        this.total = 0;
+        this.max = 0;
+    }
+
+    private int indexOf(long value) {
+        if (value < 2 * SUB_BUCKETS) {
+            return (int) value;
+        }
+
+        int shift = Math.min(63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS, MAX_SHIFT);
+        long index = (shift + 1) * SUB_BUCKETS + (value >>> shift) - SUB_BUCKETS;
+
+        return (int) Math.min(index, this.counts.length - 1);
+    }
+
+    /**
+     * @return The middle of the range of values stored in given bucket
+     */
+    private long valueOf(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+
+        return lower + ((1L << shift) >> 1);
+    }
+}
@@ -0,0 +1,76 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LatencyStats class
+ *
+ * The latency histograms of a single process, one for every
+ * phase of a turn that is measured
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class LatencyStats {
+
+    public static final String THINK = "think"; // engine: from the last write until its next message
+    public static final String DISPATCH = "dispatch"; // from receiving the engine's ask until asking the bot
+    public static final String WRITE = "write"; // writing a line to the process
+    public static final String COMPUTE = "compute"; // bot: from the end of the write until the response is read
+    public static final String PICKUP = "pickup"; // from reading the response until it is handed to the wrapper
+    public static final String OVERHEAD = "overhead"; // bot: dispatch, write and pickup together
+
+    private LinkedHashMap<String, LatencyHistogram> histograms;
+
+    public LatencyStats() {
+        this.histograms = new LinkedHashMap<>();
+    }
+
+    /**
+     * Stores the duration of a phase
+     * @param phase Name of the phase
+     * @param nanos Duration in nanoseconds
+     */
+    public void record(String phase, long nanos) {
+        this.histograms.computeIfAbsent(phase, key -> new LatencyHistogram()).record(nanos);
+    }
+
+    /**
+     * @param phase Name of the phase
+     * @return Histogram of the phase, null if nothing is recorded for it
+     */
+    public LatencyHistogram get(String phase) {
+        return this.histograms.get(phase);
+    }
+
+    /**
+     * @return Histograms of all phases, in the order they were first recorded
+     */
+    public Map<String, LatencyHistogram> getHistograms() {
+        return this.histograms;
+    }
+
+    /**
+     * Removes all recorded durations
+     */
+    public void reset() {
+        this.histograms.clear();
+    }
+}
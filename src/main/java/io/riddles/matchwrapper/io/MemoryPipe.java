@@ -0,0 +1,162 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+
+/**
+ * MemoryPipe class
+ *
+ * A pipe between two threads in memory, used for the standard streams of
+ * bots running in the wrapper's JVM. Unlike PipedInputStream, writes never
+ * block and the pipe doesn't break when the writing thread ends.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+class MemoryPipe {
+
+    private static final int INITIAL_SIZE = 8192;
+
+    private byte[] buffer = new byte[INITIAL_SIZE];
+    private int start; // index of the first unread byte
+    private int end; // index after the last written byte
+    private long written; // bytes written in total
+    private boolean writeClosed;
+    private boolean readClosed;
+
+    private final InputStream inputStream = new InputStream() {
+        @Override
+        public int read() throws IOException {
+            byte[] single = new byte[1];
+            return MemoryPipe.this.read(single, 0, 1) < 0 ? -1 : single[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return MemoryPipe.this.read(bytes, offset, length);
+        }
+
+        @Override
+        public int available() {
+            return MemoryPipe.this.available();
+        }
+
+        @Override
+        public void close() {
+            closeRead();
+        }
+    };
+
+    private final OutputStream outputStream = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            MemoryPipe.this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            MemoryPipe.this.write(bytes, offset, length);
+        }
+
+        @Override
+        public void close() {
+            closeWrite();
+        }
+    };
+
+    InputStream getInputStream() {
+        return this.inputStream;
+    }
+
+    OutputStream getOutputStream() {
+        return this.outputStream;
+    }
+
+    /**
+     * @return Bytes written to the pipe in total
+     */
+    synchronized long getWritten() {
+        return this.written;
+    }
+
+    synchronized boolean isWriteClosed() {
+        return this.writeClosed;
+    }
+
+    synchronized void closeWrite() {
+        this.writeClosed = true;
+        notifyAll();
+    }
+
+    synchronized void closeRead() {
+        this.readClosed = true;
+        notifyAll();
+    }
+
+    private synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+        if (this.writeClosed || this.readClosed) {
+            throw new IOException("Pipe closed");
+        }
+
+        if (this.end + length > this.buffer.length) {
+            int unread = this.end - this.start;
+            byte[] target = unread + length > this.buffer.length
+                    ? new byte[Math.max(this.buffer.length * 2, unread + length)]
+                    : this.buffer;
+
+            System.arraycopy(this.buffer, this.start, target, 0, unread);
+            this.buffer = target;
+            this.start = 0;
+            this.end = unread;
+        }
+
+        System.arraycopy(bytes, offset, this.buffer, this.end, length);
+        this.end += length;
+        this.written += length;
+        notifyAll();
+    }
+
+    private synchronized int read(byte[] bytes, int offset, int length) throws IOException {
+        if (length == 0) return 0;
+
+        while (this.start == this.end) {
+            if (this.readClosed) throw new IOException("Pipe closed");
+            if (this.writeClosed) return -1;
+
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+
+        int count = Math.min(length, this.end - this.start);
+        System.arraycopy(this.buffer, this.start, bytes, offset, count);
+        this.start += count;
+
+        return count;
+    }
+
+    private synchronized int available() {
+        return this.end - this.start;
+    }
+}
@@ -0,0 +1,134 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+/**
+ * OutputLog class
+ *
+ * Stores the output of a process stream in a fixed amount of memory. The
+ * first half of the limit keeps the start of the output, the second half
+ * is a ring buffer with the most recent output. Everything in between is
+ * dropped and replaced by a note with the number of dropped characters.
+ * A limit of 0 stores nothing.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class OutputLog {
+
+    private int headLimit;
+    private int tailLimit;
+    private StringBuilder head;
+    private char[] tail; // allocated once the head is full
+    private int tailStart; // index of the oldest character in the tail
+    private int tailLength;
+    private long omitted;
+
+    public OutputLog(int limit) {
+        this.headLimit = limit / 2;
+        this.head = new StringBuilder();
+        this.tailLimit = limit - this.headLimit;
+        this.tail = new char[0];
+        this.tailStart = 0;
+        this.tailLength = 0;
+        this.omitted = 0;
+    }
+
+    /**
+     * Stores a line of output
+     * @param line Line to store, without line ending
+     */
+    public synchronized void append(String line) {
+        appendText(line);
+        appendText("\n");
+    }
+
+    private void appendText(String text) {
+        int offset = 0;
+        int length = text.length();
+
+        if (this.head.length() < this.headLimit) {
+            offset = Math.min(length, this.headLimit - this.head.length());
+            this.head.append(text, 0, offset);
+        }
+
+        int remaining = length - offset;
+        if (remaining <= 0) return;
+
+        if (this.tail.length < this.tailLimit) {
+            this.tail = new char[this.tailLimit];
+        }
+
+        int capacity = this.tail.length;
+
+        if (capacity == 0) {
+            this.omitted += remaining;
+            return;
+        }
+
+        // only the last part of the text fits when it's longer than the whole tail
+        if (remaining > capacity) {
+            this.omitted += this.tailLength + remaining - capacity;
+            offset += remaining - capacity;
+            remaining = capacity;
+            this.tailStart = 0;
+            this.tailLength = 0;
+        }
+
+        int overflow = this.tailLength + remaining - capacity;
+        if (overflow > 0) {
+            this.omitted += overflow;
+            this.tailStart = (this.tailStart + overflow) % capacity;
+            this.tailLength -= overflow;
+        }
+
+        int end = (this.tailStart + this.tailLength) % capacity;
+        int firstPart = Math.min(remaining, capacity - end);
+        text.getChars(offset, offset + firstPart, this.tail, end);
+        text.getChars(offset + firstPart, offset + remaining, this.tail, 0);
+        this.tailLength += remaining;
+    }
+
+    /**
+     * @return The stored output
+     */
+    public synchronized String getData() {
+        StringBuilder data = new StringBuilder(this.head.length() + this.tailLength + 64);
+        data.append(this.head);
+
+        if (this.omitted > 0) {
+            data.append(String.format("... %d characters omitted ...\n", this.omitted));
+        }
+
+        int capacity = this.tail.length;
+        int firstPart = Math.min(this.tailLength, capacity - this.tailStart);
+        data.append(this.tail, this.tailStart, firstPart);
+        data.append(this.tail, 0, this.tailLength - firstPart);
+
+        return data.toString();
+    }
+
+    /**
+     * Removes all stored output
+     */
+    public synchronized void clear() {
+        this.head.setLength(0);
+        this.tailStart = 0;
+        this.tailLength = 0;
+        this.omitted = 0;
+    }
+}
@@ -0,0 +1,285 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import org.json.JSONObject;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.riddles.matchwrapper.MatchContext;
+
+/**
+ * PlayerPool class
+ *
+ * Keeps bot processes alive after a match so they can be handed to the
+ * next match that starts the same command. Only bots that have a reset
+ * command and answer it with "ok" are kept. Before a bot is reused, it is
+ * checked to still be running and to not have output anything since the
+ * reset. Idle bots are shut down after a while, as are bots that are too
+ * old or have been used too often. A single pool is shared by all
+ * matches in the JVM.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class PlayerPool {
+
+    private static final long SWEEP_INTERVAL = 1000L;
+    private static PlayerPool shared;
+
+    private HashMap<String, ArrayDeque<Entry>> idle;
+    private IdentityHashMap<IOPlayer, Entry> leased;
+    private ScheduledExecutorService sweeper;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long failedResets;
+
+    private PlayerPool() {
+        this.idle = new HashMap<>();
+        this.leased = new IdentityHashMap<>();
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "player-pool-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.sweeper.scheduleWithFixedDelay(
+                this::evictExpired, SWEEP_INTERVAL, SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return The pool shared by all matches in this JVM. Idle bots in
+     * the pool are shut down when the JVM exits.
+     */
+    public static synchronized PlayerPool getShared() {
+        if (shared == null) {
+            shared = new PlayerPool();
+            Runtime.getRuntime().addShutdownHook(new Thread(shared::shutdown));
+        }
+
+        return shared;
+    }
+
+    /**
+     * Takes an idle bot that was started with given command and
+     * prepares it for a new match
+     * @param poolKey The command to start the bot
+     * @param id The bot's ID in the new match
+     * @param context Settings of the new match
+     * @return A clean running bot, null if there is none
+     */
+    public IOPlayer acquire(String poolKey, int id, MatchContext context) {
+        ArrayList<Entry> expired = new ArrayList<>();
+        Entry entry = null;
+
+        synchronized (this) {
+            ArrayDeque<Entry> entries = this.idle.get(poolKey);
+
+            while (entries != null && !entries.isEmpty()) {
+                Entry candidate = entries.pollFirst();
+
+                if (candidate.isExpired(System.nanoTime()) || !candidate.player.isClean()) {
+                    expired.add(candidate);
+                    continue;
+                }
+
+                entry = candidate;
+                entry.uses++;
+                this.leased.put(entry.player, entry);
+                break;
+            }
+
+            if (entry == null) {
+                this.misses++;
+            } else {
+                this.hits++;
+            }
+            this.evictions += expired.size();
+        }
+
+        shutdown(expired);
+
+        if (entry == null) {
+            return null;
+        }
+
+        entry.player.reuse(id, context);
+        return entry.player;
+    }
+
+    /**
+     * Starts tracking a newly started bot, so it can be returned
+     * to the pool after the match
+     * @param player The started bot
+     */
+    public synchronized void register(IOPlayer player) {
+        this.leased.put(player, new Entry(player));
+    }
+
+    /**
+     * Resets the bot after a match and puts it in the pool. If the
+     * reset fails or the bot may not be reused anymore, it is shut down.
+     * @param player Bot that has finished its match
+     * @param context Settings of the match the bot has played
+     * @return The exit status of the bot
+     */
+    public int release(IOPlayer player, MatchContext context) {
+        Entry entry;
+
+        synchronized (this) {
+            entry = this.leased.remove(player);
+        }
+
+        if (entry == null) {
+            return player.finish();
+        }
+
+        entry.setLimits(context);
+
+        if (entry.isExpired(System.nanoTime())) {
+            synchronized (this) {
+                this.evictions++;
+            }
+            return player.finish();
+        }
+
+        if (!player.reset(context.getBotPoolResetTimeout())) {
+            synchronized (this) {
+                this.failedResets++;
+            }
+            return player.finish();
+        }
+
+        entry.lastUsed = System.nanoTime();
+
+        synchronized (this) {
+            this.idle.computeIfAbsent(player.getPoolKey(), key -> new ArrayDeque<>())
+                    .addFirst(entry);
+        }
+
+        return 0;
+    }
+
+    /**
+     * @return Statistics on how well the pool is used
+     */
+    public synchronized JSONObject getStats() {
+        int idleCount = this.idle.values().stream().mapToInt(ArrayDeque::size).sum();
+
+        JSONObject stats = new JSONObject();
+        stats.put("hits", this.hits);
+        stats.put("misses", this.misses);
+        stats.put("evictions", this.evictions);
+        stats.put("failedResets", this.failedResets);
+        stats.put("idle", idleCount);
+
+        return stats;
+    }
+
+    /**
+     * Shuts down all idle bots
+     */
+    public void shutdown() {
+        ArrayList<Entry> entries = new ArrayList<>();
+
+        synchronized (this) {
+            this.idle.values().forEach(entries::addAll);
+            this.idle.clear();
+        }
+
+        this.sweeper.shutdownNow();
+        shutdown(entries);
+    }
+
+    /**
+     * Shuts down the idle bots that have been idle for too long or
+     * have reached their maximum age or number of uses
+     */
+    private void evictExpired() {
+        ArrayList<Entry> expired = new ArrayList<>();
+        long now = System.nanoTime();
+
+        synchronized (this) {
+            for (ArrayDeque<Entry> entries : this.idle.values()) {
+                Iterator<Entry> iterator = entries.iterator();
+
+                while (iterator.hasNext()) {
+                    Entry entry = iterator.next();
+
+                    if (entry.isIdleTooLong(now) || entry.isExpired(now)) {
+                        iterator.remove();
+                        expired.add(entry);
+                    }
+                }
+            }
+
+            this.idle.values().removeIf(ArrayDeque::isEmpty);
+            this.evictions += expired.size();
+        }
+
+        shutdown(expired);
+    }
+
+    private void shutdown(ArrayList<Entry> entries) {
+        for (Entry entry : entries) {
+            entry.player.finish();
+        }
+    }
+
+    /**
+     * A bot in the pool, with its limits taken from the
+     * last match it has played
+     */
+    private static class Entry {
+
+        private IOPlayer player;
+        private long created;
+        private long lastUsed;
+        private int uses;
+        private long maxIdleTime;
+        private long maxAge;
+        private int maxUses;
+
+        private Entry(IOPlayer player) {
+            this.player = player;
+            this.created = System.nanoTime();
+            this.lastUsed = this.created;
+            this.uses = 1;
+        }
+
+        private void setLimits(MatchContext context) {
+            this.maxIdleTime = TimeUnit.MILLISECONDS.toNanos(context.getBotPoolMaxIdleTime());
+            this.maxAge = TimeUnit.MILLISECONDS.toNanos(context.getBotPoolMaxAge());
+            this.maxUses = context.getBotPoolMaxUses();
+        }
+
+        private boolean isExpired(long now) {
+            return this.uses >= this.maxUses || now - this.created >= this.maxAge;
+        }
+
+        private boolean isIdleTooLong(long now) {
+            return now - this.lastUsed >= this.maxIdleTime;
+        }
+    }
+}
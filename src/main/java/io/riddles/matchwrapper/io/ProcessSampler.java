@@ -0,0 +1,160 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * ProcessSampler class
+ *
+ * A single background thread that periodically reads the memory, CPU
+ * time and I/O of all running engine and bot processes from /proc. This
+ * replaces starting a ps process after every bot response. When processes
+ * from multiple matches are registered, the smallest interval is used.
+ * On systems without /proc all values stay 0.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class ProcessSampler extends Thread {
+
+    private static final long CLOCK_TICKS_PER_SECOND = 100; // USER_HZ, 100 on all common Linux systems
+    private static ProcessSampler shared;
+
+    private IdentityHashMap<IOWrapper, Long> intervals;
+
+    private ProcessSampler() {
+        super("process-sampler");
+        this.intervals = new IdentityHashMap<>();
+        setDaemon(true);
+    }
+
+    /**
+     * @return The sampler shared by all matches in this JVM
+     */
+    public static synchronized ProcessSampler getShared() {
+        if (shared == null) {
+            shared = new ProcessSampler();
+            shared.start();
+        }
+
+        return shared;
+    }
+
+    /**
+     * Starts sampling the process of given wrapper
+     * @param wrapper Wrapper of the process
+     * @param interval Time between samples in milliseconds
+     */
+    public synchronized void register(IOWrapper wrapper, long interval) {
+        this.intervals.put(wrapper, interval);
+        notifyAll();
+    }
+
+    /**
+     * Stops sampling the process of given wrapper
+     * @param wrapper Wrapper of the process
+     */
+    public synchronized void unregister(IOWrapper wrapper) {
+        this.intervals.remove(wrapper);
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                List<IOWrapper> wrappers;
+                long interval;
+
+                synchronized (this) {
+                    while (this.intervals.isEmpty()) {
+                        wait();
+                    }
+
+                    wrappers = new ArrayList<>(this.intervals.keySet());
+                    interval = Collections.min(this.intervals.values());
+                }
+
+                for (IOWrapper wrapper : wrappers) {
+                    wrapper.sample();
+                }
+
+                Thread.sleep(Math.max(interval, 1));
+            }
+        } catch (InterruptedException ignored) {}
+    }
+
+    /**
+     * Reads the current resource usage of a process from /proc
+     * @param pid Process id
+     * @param stats Stats to update
+     */
+    static void sample(long pid, ProcessStats stats) {
+        if (pid < 0) return;
+
+        Path proc = Paths.get("/proc", Long.toString(pid));
+        long rss = 0;
+        long peakRss = 0;
+        long cpuTime;
+        long readBytes = 0;
+        long writeBytes = 0;
+
+        try {
+            for (String line : Files.readAllLines(proc.resolve("status"), StandardCharsets.UTF_8)) {
+                if (line.startsWith("VmRSS:")) {
+                    rss = parseKilobytes(line);
+                } else if (line.startsWith("VmHWM:")) {
+                    peakRss = parseKilobytes(line);
+                }
+            }
+
+            // fields after the command name, which may contain spaces
+            String stat = new String(Files.readAllBytes(proc.resolve("stat")), StandardCharsets.UTF_8);
+            String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            long ticks = Long.parseLong(fields[11]) + Long.parseLong(fields[12]) // utime, stime
+                    + Long.parseLong(fields[13]) + Long.parseLong(fields[14]); // cutime, cstime
+            cpuTime = ticks * 1000 / CLOCK_TICKS_PER_SECOND;
+        } catch (IOException | RuntimeException ex) {
+            return; // process has ended or there is no /proc
+        }
+
+        try {
+            for (String line : Files.readAllLines(proc.resolve("io"), StandardCharsets.UTF_8)) {
+                if (line.startsWith("rchar:")) {
+                    readBytes = Long.parseLong(line.substring(6).trim());
+                } else if (line.startsWith("wchar:")) {
+                    writeBytes = Long.parseLong(line.substring(6).trim());
+                }
+            }
+        } catch (IOException | RuntimeException ignored) {} // io is not readable on all systems
+
+        stats.update(rss, peakRss, cpuTime, readBytes, writeBytes);
+    }
+
+    private static long parseKilobytes(String line) {
+        String[] parts = line.trim().split("\\s+");
+        return Long.parseLong(parts[1]);
+    }
+}
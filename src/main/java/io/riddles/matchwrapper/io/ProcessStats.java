@@ -0,0 +1,127 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+/**
+ * ProcessStats class
+ *
+ * Resource usage of a single process, as last read by the ProcessSampler.
+ * Peak memory, CPU time and I/O are counted from the start of the current
+ * match, so a reused bot only reports what it used in the match it is playing.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class ProcessStats {
+
+    private long rss; // kB
+    private long peakRss; // kB
+    private long kernelPeakRss; // kB, highest resident memory over the whole life of the process
+    private long kernelPeakRssOffset; // kB, kernelPeakRss at the start of the match
+    private long cpuTime; // ms
+    private long readBytes;
+    private long writeBytes;
+    private long allocatedBytes = -1; // only known for bots in the wrapper's JVM
+    private long cpuTimeOffset;
+    private long readBytesOffset;
+    private long writeBytesOffset;
+    private long allocatedBytesOffset;
+
+    /**
+     * Stores a new sample of the process
+     * @param rss Current resident memory in kB
+     * @param peakRss Highest resident memory reported by the kernel in kB
+     * @param cpuTime Total user and system CPU time in ms
+     * @param readBytes Total bytes read by the process
+     * @param writeBytes Total bytes written by the process
+     */
+    synchronized void update(long rss, long peakRss, long cpuTime, long readBytes, long writeBytes) {
+        this.rss = rss;
+        this.kernelPeakRss = peakRss;
+
+        // the kernel's peak only counts once it's beyond the peak of earlier matches
+        long matchPeakRss = peakRss > this.kernelPeakRssOffset ? peakRss : rss;
+        this.peakRss = Math.max(this.peakRss, Math.max(rss, matchPeakRss));
+        this.cpuTime = cpuTime;
+        this.readBytes = readBytes;
+        this.writeBytes = writeBytes;
+    }
+
+    /**
+     * Stores the bytes allocated by the process, only
+     * known for bots in the wrapper's JVM
+     * @param allocatedBytes Total bytes allocated
+     */
+    synchronized void updateAllocatedBytes(long allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Starts counting from the current values, used when
+     * the process is reused for another match
+     */
+    synchronized void reset() {
+        this.peakRss = this.rss;
+        this.kernelPeakRssOffset = this.kernelPeakRss;
+        this.cpuTimeOffset = this.cpuTime;
+        this.readBytesOffset = this.readBytes;
+        this.writeBytesOffset = this.writeBytes;
+        this.allocatedBytesOffset = Math.max(this.allocatedBytes, 0);
+    }
+
+    /**
+     * @return Resident memory at the last sample in kB
+     */
+    public synchronized long getRss() {
+        return this.rss;
+    }
+
+    /**
+     * @return Highest resident memory in kB
+     */
+    public synchronized long getPeakRss() {
+        return this.peakRss;
+    }
+
+    /**
+     * @return User and system CPU time in ms
+     */
+    public synchronized long getCpuTime() {
+        return this.cpuTime - this.cpuTimeOffset;
+    }
+
+    /**
+     * @return Bytes read, including pipes
+     */
+    public synchronized long getReadBytes() {
+        return this.readBytes - this.readBytesOffset;
+    }
+
+    /**
+     * @return Bytes written, including pipes
+     */
+    public synchronized long getWriteBytes() {
+        return this.writeBytes - this.writeBytesOffset;
+    }
+
+    /**
+     * @return Bytes allocated, -1 if unknown
+     */
+    public synchronized long getAllocatedBytes() {
+        return this.allocatedBytes < 0 ? -1 : this.allocatedBytes - this.allocatedBytesOffset;
+    }
+}
@@ -0,0 +1,207 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongConsumer;
+
+/**
+ * StreamReader class
+ *
+ * A bounded pool of reader threads, shared by all matches in the JVM, that
+ * reads the output streams of all engine and bot processes with blocking
+ * reads. Every stream takes a thread from the pool until it ends, after which
+ * the thread is reused for the streams of later processes instead of a new
+ * thread being started. Reader threads have small stacks, and idle ones end
+ * after a minute. When all threads are in use, new streams are refused
+ * instead of waiting, as a stream that isn't read stalls its process.
+ * Error streams that are written to a file don't take a thread, they are
+ * all tailed by a single thread, as nothing waits for what is in them.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class StreamReader {
+
+    static final int BUFFER_SIZE = 8192;
+    private static final int MAX_THREADS = 4096;
+    private static final long STACK_SIZE = 256 * 1024;
+    private static final long KEEP_ALIVE = 60000L; // idle threads end after a minute
+    private static final long TAIL_INTERVAL = 100L; // ms between reads of the tailed files
+
+    private static StreamReader shared;
+
+    private ThreadPoolExecutor executor;
+    private AtomicInteger threadNumber;
+    private AtomicInteger streamCount;
+    private Set<Long> threadIds; // operating system thread ids of the live reader threads
+    private LongConsumer threadListener;
+    private Set<InputStreamGobbler> tailed;
+    private ReaderThread tailThread;
+
+    private StreamReader(int maxThreads) {
+        this.threadNumber = new AtomicInteger();
+        this.streamCount = new AtomicInteger();
+        this.threadIds = ConcurrentHashMap.newKeySet();
+        this.tailed = ConcurrentHashMap.newKeySet();
+        this.executor = new ThreadPoolExecutor(0, maxThreads, KEEP_ALIVE, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<>(), runnable -> new ReaderThread(runnable));
+    }
+
+    /**
+     * @return The reader shared by all matches in this JVM
+     */
+    public static synchronized StreamReader getShared() {
+        if (shared == null) {
+            shared = new StreamReader(MAX_THREADS);
+        }
+
+        return shared;
+    }
+
+    /**
+     * Starts reading the stream of given gobbler on a reader thread.
+     * It is read until it ends.
+     * @param gobbler Gobbler of the stream
+     */
+    public void register(InputStreamGobbler gobbler) {
+        try {
+            this.executor.execute(() -> read(gobbler));
+        } catch (RejectedExecutionException ex) {
+            throw new RuntimeException(String.format(
+                    "Can't read more than %d process streams at the same time", MAX_THREADS));
+        }
+    }
+
+    /**
+     * Starts tailing the file of given gobbler, until
+     * the process has ended or the gobbler is finished
+     * @param gobbler Gobbler of the file
+     */
+    public synchronized void tail(InputStreamGobbler gobbler) {
+        this.tailed.add(gobbler);
+
+        if (this.tailThread == null) {
+            this.tailThread = new ReaderThread(this::tailFiles);
+            this.tailThread.start();
+        }
+    }
+
+    private void tailFiles() {
+        byte[] buffer = ((ReaderThread) Thread.currentThread()).buffer;
+
+        while (true) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(TAIL_INTERVAL));
+
+            this.tailed.removeIf(gobbler -> !tailFile(gobbler, buffer));
+        }
+    }
+
+    // one failing file doesn't stop the others from being tailed
+    private boolean tailFile(InputStreamGobbler gobbler, byte[] buffer) {
+        try {
+            return gobbler.readAvailable(buffer);
+        } catch (RuntimeException ex) {
+            System.err.println(String.format("Tailing failed: %s", ex));
+            return false;
+        }
+    }
+
+    private void read(InputStreamGobbler gobbler) {
+        this.streamCount.incrementAndGet();
+
+        try {
+            gobbler.read(((ReaderThread) Thread.currentThread()).buffer);
+        } finally {
+            this.streamCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Sets a listener that is called with the operating system thread id
+     * of every reader thread, both the running ones and the ones that
+     * are started later
+     * @param listener The listener
+     */
+    public synchronized void setThreadListener(LongConsumer listener) {
+        this.threadListener = listener;
+
+        for (long threadId : this.threadIds) {
+            listener.accept(threadId);
+        }
+    }
+
+    private synchronized void addThread(long threadId) {
+        this.threadIds.add(threadId);
+
+        if (this.threadListener != null) {
+            this.threadListener.accept(threadId);
+        }
+    }
+
+    /**
+     * @return Number of streams that are being read or tailed
+     */
+    public int getStreamCount() {
+        return this.streamCount.get() + this.tailed.size();
+    }
+
+    /**
+     * @return Number of reader threads, busy or idle
+     */
+    public synchronized int getThreadCount() {
+        return this.executor.getPoolSize() + (this.tailThread != null ? 1 : 0);
+    }
+
+    private class ReaderThread extends Thread {
+
+        private byte[] buffer;
+
+        private ReaderThread(Runnable runnable) {
+            super(null, runnable, "stream-reader-" + threadNumber.getAndIncrement(), STACK_SIZE);
+            this.buffer = new byte[BUFFER_SIZE];
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            // links to /proc/<pid>/task/<tid>, only on Linux
+            long threadId = -1;
+            try {
+                threadId = Long.parseLong(
+                        Files.readSymbolicLink(Paths.get("/proc/thread-self")).getFileName().toString());
+                addThread(threadId);
+            } catch (IOException | RuntimeException ignored) {}
+
+            try {
+                super.run();
+            } finally {
+                threadIds.remove(threadId);
+            }
+        }
+    }
+}
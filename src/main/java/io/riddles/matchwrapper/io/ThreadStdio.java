@@ -0,0 +1,129 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+
+/**
+ * ThreadStdio class
+ *
+ * Replaces System.in, System.out and System.err with streams that go to
+ * the in-JVM bot of the current thread, and to the original streams on
+ * all other threads. Threads started by a bot belong to the same bot.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+final class ThreadStdio {
+
+    private static final InheritableThreadLocal<InJvmProcess> PROCESS = new InheritableThreadLocal<>();
+    private static boolean installed = false;
+
+    private ThreadStdio() {}
+
+    /**
+     * Replaces the standard streams, only the first call has effect
+     */
+    static synchronized void install() {
+        if (installed) return;
+
+        InputStream in = System.in;
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+
+        System.setIn(new RoutedInputStream(in));
+        System.setOut(new PrintStream(new RoutedOutputStream(out, false), true));
+        System.setErr(new PrintStream(new RoutedOutputStream(err, true), true));
+        installed = true;
+    }
+
+    /**
+     * Makes the current thread, and all threads it starts, use
+     * the streams of given bot
+     * @param process The bot
+     */
+    static void bind(InJvmProcess process) {
+        PROCESS.set(process);
+    }
+
+    private static class RoutedInputStream extends InputStream {
+
+        private final InputStream original;
+
+        private RoutedInputStream(InputStream original) {
+            this.original = original;
+        }
+
+        private InputStream target() {
+            InJvmProcess process = PROCESS.get();
+            return process != null ? process.getStdin() : this.original;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return target().read();
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            return target().read(bytes, offset, length);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return target().available();
+        }
+    }
+
+    private static class RoutedOutputStream extends OutputStream {
+
+        private final OutputStream original;
+        private final boolean error;
+
+        private RoutedOutputStream(OutputStream original, boolean error) {
+            this.original = original;
+            this.error = error;
+        }
+
+        private OutputStream target() {
+            InJvmProcess process = PROCESS.get();
+            if (process == null) {
+                return this.original;
+            }
+
+            return this.error ? process.getStderr() : process.getStdout();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            target().write(b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            target().write(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            target().flush();
+        }
+    }
+}
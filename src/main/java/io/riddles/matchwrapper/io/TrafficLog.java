@@ -0,0 +1,151 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * TrafficLog class
+ *
+ * Reads a log written by the TrafficRecorder
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class TrafficLog {
+
+    private static final int BUFFER_SIZE = 65536;
+
+    private List<Entry> entries;
+
+    private TrafficLog(List<Entry> entries) {
+        this.entries = entries;
+    }
+
+    /**
+     * Reads a complete traffic log, a log that was cut off
+     * is read up to the last complete record
+     * @param path Path of the log, gzipped if it ends with .gz
+     * @return The log
+     * @throws IOException if the file can't be read or is not a traffic log
+     */
+    public static TrafficLog read(String path) throws IOException {
+        InputStream stream = new FileInputStream(path);
+
+        if (path.endsWith(".gz")) {
+            stream = new GZIPInputStream(stream, BUFFER_SIZE);
+        }
+
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE))) {
+            if (input.readInt() != TrafficRecorder.MAGIC || input.readByte() != TrafficRecorder.VERSION) {
+                throw new IOException(String.format("%s is not a traffic log", path));
+            }
+
+            List<Entry> entries = new ArrayList<>();
+            long time = 0;
+
+            while (true) {
+                try {
+                    byte kind = input.readByte();
+                    int process = input.readShort();
+                    time += readVarLong(input);
+                    byte[] data = new byte[(int) readVarLong(input)];
+                    input.readFully(data);
+
+                    entries.add(new Entry(kind, process, time, data));
+                } catch (EOFException ex) {
+                    break;
+                }
+            }
+
+            return new TrafficLog(entries);
+        }
+    }
+
+    /**
+     * @param process Bot id or TrafficRecorder.ENGINE
+     * @return All records of given process, in the order they were recorded
+     */
+    public List<Entry> getEntries(int process) {
+        List<Entry> processEntries = new ArrayList<>();
+
+        for (Entry entry : this.entries) {
+            if (entry.process == process) {
+                processEntries.add(entry);
+            }
+        }
+
+        return processEntries;
+    }
+
+    private static long readVarLong(DataInputStream input) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = input.readByte();
+            value |= (long) (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed traffic log");
+    }
+
+    public static class Entry {
+
+        private final byte kind;
+        private final int process;
+        private final long time;
+        private final byte[] data;
+
+        Entry(byte kind, int process, long time, byte[] data) {
+            this.kind = kind;
+            this.process = process;
+            this.time = time;
+            this.data = data;
+        }
+
+        public byte getKind() {
+            return this.kind;
+        }
+
+        public int getProcess() {
+            return this.process;
+        }
+
+        /**
+         * @return Nanoseconds since the recording started
+         */
+        public long getTime() {
+            return this.time;
+        }
+
+        public byte[] getData() {
+            return this.data;
+        }
+    }
+}
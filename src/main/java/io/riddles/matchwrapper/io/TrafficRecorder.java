@@ -0,0 +1,203 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * TrafficRecorder class
+ *
+ * Writes everything the wrapper sends to and receives from the engine
+ * and the bots of a match to a binary log, with the time of every
+ * record in nanoseconds. After a magic number and version, every record is:
+ * kind (byte), process (short, -1 for the engine), nanoseconds since the
+ * previous record (varint), payload length (varint) and the payload.
+ * If the file name ends with .gz, the log is gzipped.
+ * Records are queued and written by a thread of the recorder's own, so the
+ * threads that read and write the processes never wait on the file. If the
+ * file can't keep up and the queue is full, records are dropped and counted.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class TrafficRecorder {
+
+    static final int MAGIC = 0x4d575452; // "MWTR"
+    static final byte VERSION = 1;
+
+    public static final byte WRITE = 0; // bytes written to the process
+    public static final byte LINE = 1; // line read from the process
+    public static final byte FRAME = 2; // frame read from the process, header included
+    public static final int ENGINE = -1;
+
+    private static final int BUFFER_SIZE = 65536;
+    private static final int QUEUE_SIZE = 65536; // records waiting for the writer thread at most
+    private static final Record END = new Record((byte) -1, 0, 0L, null);
+
+    private DataOutputStream output;
+    private BlockingQueue<Record> records;
+    private Thread writer;
+    private long lastTime; // only used by the writer thread
+    private volatile boolean failed;
+    private boolean closed;
+    private long dropped; // records that didn't fit in the queue
+
+    public TrafficRecorder(String path) throws IOException {
+        OutputStream stream = new FileOutputStream(path);
+
+        if (path.endsWith(".gz")) {
+            stream = new GZIPOutputStream(stream, BUFFER_SIZE);
+        }
+
+        this.output = new DataOutputStream(new BufferedOutputStream(stream, BUFFER_SIZE));
+        this.output.writeInt(MAGIC);
+        this.output.writeByte(VERSION);
+        this.lastTime = System.nanoTime();
+        this.records = new LinkedBlockingQueue<>(QUEUE_SIZE);
+        this.writer = new Thread(this::writeRecords, "traffic-recorder");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Records a line read from a process
+     * @param kind LINE
+     * @param process Bot id or ENGINE
+     * @param line The line
+     */
+    void record(byte kind, int process, String line) {
+        record(kind, process, line.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Records bytes written to or read from a process. The bytes are
+     * written later, so they must not be changed afterwards.
+     * @param kind WRITE, LINE or FRAME
+     * @param process Bot id or ENGINE
+     * @param parts The bytes, one after another
+     */
+    void record(byte kind, int process, byte[]... parts) {
+        if (this.failed) return;
+
+        // the time is taken while queueing, so records are queued in order of time
+        synchronized (this.records) {
+            if (this.closed) return;
+
+            if (!this.records.offer(new Record(kind, process, System.nanoTime(), parts))) {
+                this.dropped++;
+            }
+        }
+    }
+
+    /**
+     * Writes everything recorded to the file and closes it
+     */
+    public void close() {
+        long dropped;
+        synchronized (this.records) {
+            if (this.closed) return;
+
+            this.closed = true;
+            dropped = this.dropped;
+        }
+
+        try {
+            this.records.put(END); // nothing else is queued anymore, so this waits for the writer at most
+            this.writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (dropped > 0) {
+            System.err.println(String.format("Traffic recording dropped %d records, it can't be replayed as it was",
+                    dropped));
+        }
+    }
+
+    private void writeRecords() {
+        try {
+            Record record;
+            while ((record = this.records.take()) != END) {
+                if (!this.failed) {
+                    write(record);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            this.output.close();
+        } catch (IOException ex) {
+            System.err.println("Closing traffic recording failed: " + ex.getMessage());
+        }
+    }
+
+    private void write(Record record) {
+        int length = 0;
+        for (byte[] part : record.parts) {
+            length += part.length;
+        }
+
+        try {
+            this.output.writeByte(record.kind);
+            this.output.writeShort(record.process);
+            writeVarLong(record.time - this.lastTime);
+            writeVarLong(length);
+            for (byte[] part : record.parts) {
+                this.output.write(part);
+            }
+        } catch (IOException ex) {
+            System.err.println("Recording traffic failed: " + ex.getMessage());
+            this.failed = true;
+        }
+
+        this.lastTime = record.time;
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            this.output.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+
+        this.output.writeByte((int) value);
+    }
+
+    private static class Record {
+
+        private final byte kind;
+        private final int process;
+        private final long time;
+        private final byte[][] parts;
+
+        private Record(byte kind, int process, long time, byte[][] parts) {
+            this.kind = kind;
+            this.process = process;
+            this.time = time;
+            this.parts = parts;
+        }
+    }
+}
@@ -0,0 +1,180 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//  
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.io;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * TrafficReplay class
+ *
+ * Plays the recorded traffic of one process back to a new process of
+ * the same bot or engine, without any of the other processes of the
+ * match. Every recorded write is sent as it was, once the process has
+ * output as many lines as it had at that point of the recording. The
+ * time from a write until the process output the lines that followed it
+ * is the latency of that write. With a speed above 0, writes are also
+ * not sent earlier than in the recording, divided by the speed.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class TrafficReplay {
+
+    private IOWrapper subject;
+    private List<TrafficLog.Entry> entries;
+    private double speed; // 1 is real time, 0 is as fast as possible
+    private long timeout;
+    private LatencyHistogram histogram;
+    private List<Long> latencies;
+    private int writes;
+    private long duration;
+
+    /**
+     * @param subject The new process
+     * @param entries Recorded traffic of the process
+     * @param speed Speed relative to the recording, 0 to not wait
+     * @param timeout Time the process gets to output the recorded lines after a write
+     */
+    public TrafficReplay(IOWrapper subject, List<TrafficLog.Entry> entries, double speed, long timeout) {
+        this.subject = subject;
+        this.entries = entries;
+        this.speed = speed;
+        this.timeout = timeout;
+        this.histogram = new LatencyHistogram();
+        this.latencies = new ArrayList<>();
+    }
+
+    /**
+     * Plays all recorded writes to the process
+     * @throws IOException if the process didn't output the recorded
+     * lines in time, or if writing to it failed
+     */
+    public void play() throws IOException {
+        if (this.subject instanceof IOEngine && usesFrames()) {
+            this.subject.setFramingLine("ok framed");
+        }
+
+        long start = System.nanoTime();
+
+        try {
+            long firstTime = this.entries.isEmpty() ? 0 : this.entries.get(0).getTime();
+            long expectedLines = 0; // lines and frames the process output so far in the recording
+            long linesAtWrite = 0; // lines output before the last write in the recording
+            long writeTime = -1; // nanoTime the last write finished
+
+            for (TrafficLog.Entry entry : this.entries) {
+                if (entry.getKind() != TrafficRecorder.WRITE) {
+                    expectedLines++;
+                    continue;
+                }
+
+                awaitLines(expectedLines, expectedLines > linesAtWrite ? writeTime : -1);
+
+                if (this.speed > 0) {
+                    long sendTime = start + (long) ((entry.getTime() - firstTime) / this.speed);
+                    while (System.nanoTime() < sendTime) {
+                        LockSupport.parkNanos(sendTime - System.nanoTime());
+                    }
+                }
+
+                if (!this.subject.write(entry.getData())) {
+                    throw new IOException(String.format("Writing write %d to the process failed", this.writes + 1));
+                }
+
+                writeTime = System.nanoTime();
+                linesAtWrite = expectedLines;
+                this.writes++;
+            }
+
+            awaitLines(expectedLines, expectedLines > linesAtWrite ? writeTime : -1);
+        } finally {
+            this.duration = System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return Number of writes sent to the process
+     */
+    public int getWrites() {
+        return this.writes;
+    }
+
+    /**
+     * @return Latency of every write that the process answered, in nanoseconds
+     */
+    public List<Long> getLatencies() {
+        return this.latencies;
+    }
+
+    public LatencyHistogram getHistogram() {
+        return this.histogram;
+    }
+
+    /**
+     * @return Nanoseconds the replay took
+     */
+    public long getDuration() {
+        return this.duration;
+    }
+
+    /**
+     * @return Nanoseconds from the first until the last record in the recording
+     */
+    public long getRecordedDuration() {
+        if (this.entries.isEmpty()) return 0;
+
+        return this.entries.get(this.entries.size() - 1).getTime() - this.entries.get(0).getTime();
+    }
+
+    /**
+     * Waits until the process has output given number of lines, and
+     * stores the latency of the last write if it was answered
+     * @param lines Number of lines
+     * @param writeTime nanoTime the answered write finished, -1 if no write was answered
+     * @throws IOException if the process didn't output the lines in time
+     */
+    private void awaitLines(long lines, long writeTime) throws IOException {
+        if (!this.subject.awaitReceivedLines(lines, this.timeout)) {
+            throw new IOException(String.format("Process output %d of %d lines within %dms after write %d",
+                    this.subject.getReceivedLines(), lines, this.timeout, this.writes));
+        }
+
+        if (this.subject.messageQueue != null) {
+            this.subject.messageQueue.clear();
+        }
+
+        if (writeTime >= 0) {
+            long latency = System.nanoTime() - writeTime;
+            this.histogram.record(latency);
+            this.latencies.add(latency);
+        }
+    }
+
+    private boolean usesFrames() {
+        for (TrafficLog.Entry entry : this.entries) {
+            if (entry.getKind() == TrafficRecorder.FRAME) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+}
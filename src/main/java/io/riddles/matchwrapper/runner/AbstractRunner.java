@@ -17,13 +17,29 @@
 
 package io.riddles.matchwrapper.runner;
 
+import io.riddles.matchwrapper.MatchContext;
 import io.riddles.matchwrapper.io.IOEngine;
 import io.riddles.matchwrapper.io.IOPlayer;
+import io.riddles.matchwrapper.io.IOWrapper;
+import io.riddles.matchwrapper.io.InJvmProcess;
+import io.riddles.matchwrapper.io.LatencyHistogram;
+import io.riddles.matchwrapper.io.LatencyStats;
+import io.riddles.matchwrapper.io.PlayerPool;
+import io.riddles.matchwrapper.io.ProcessStats;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * AbstractRunner abstract class
@@ -34,40 +50,328 @@ import java.io.IOException;
  */
 public abstract class AbstractRunner implements Reportable {
 
+    // starts the processes of all matches in the JVM, a thread per process that is starting
+    private static final ExecutorService starter = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "process-starter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    protected MatchContext context;
+    private ProcessIsolation isolation;
     private JSONObject results;
+    private int poolHits;
+    private int poolMisses;
 
-    public AbstractRunner() {
+    public AbstractRunner(MatchContext context) {
+        this.context = context;
+        this.isolation = new ProcessIsolation(context);
         this.results = new JSONObject();
     }
 
     protected IOPlayer createPlayer(String command, int id) throws IOException {
-        IOPlayer player = new IOPlayer(wrapCommand(command), id);
+        return createPlayer(command, id, null);
+    }
+
+    protected IOPlayer createPlayer(String[] commandParts, int id) throws IOException {
+        return createPlayer(commandParts, id, null);
+    }
+
+    /**
+     * Creates a player, taking a running one from the bot pool if the
+     * pool is enabled and the bot can be reset
+     * @param command Command to start process
+     * @param id The player's ID
+     * @param resetCommand Command to reset the bot after a match, null if not supported
+     * @return The running player
+     * @throws IOException exception
+     */
+    protected IOPlayer createPlayer(String command, int id, String resetCommand) throws IOException {
+        IOPlayer player = acquirePlayer(command, id, resetCommand);
+        if (player != null) {
+            return player;
+        }
+
+        long spawnStart = System.nanoTime();
+        player = new IOPlayer(wrapCommand(command), id, this.context);
+        player.setSpawnDuration(System.nanoTime() - spawnStart);
+        registerPlayer(player, command, resetCommand);
         player.run();
 
         return player;
     }
 
-    protected IOPlayer createPlayer(String[] commandParts, int id) throws IOException {
-        IOPlayer player = new IOPlayer(wrapCommand(commandParts), id);
+    protected IOPlayer createPlayer(String[] commandParts, int id, String resetCommand) throws IOException {
+        String poolKey = Arrays.toString(commandParts);
+        IOPlayer player = acquirePlayer(poolKey, id, resetCommand);
+        if (player != null) {
+            return player;
+        }
+
+        long spawnStart = System.nanoTime();
+        player = new IOPlayer(wrapCommand(commandParts), id, this.context);
+        player.setSpawnDuration(System.nanoTime() - spawnStart);
+        registerPlayer(player, poolKey, resetCommand);
+        player.run();
+
+        return player;
+    }
+
+    /**
+     * Creates a player that runs the main class of a Java bot in this JVM,
+     * it isn't pooled or isolated
+     * @param jarPath Path of the bot's jar
+     * @param mainClass Class with the main method
+     * @param args Arguments for the main method
+     * @param id The player's ID
+     * @return The running player
+     * @throws IOException if the bot can't be loaded
+     */
+    protected IOPlayer createInJvmPlayer(String jarPath, String mainClass, String[] args, int id) throws IOException {
+        long spawnStart = System.nanoTime();
+        IOPlayer player = new IOPlayer(InJvmProcess.start(jarPath, mainClass, args), id, this.context);
+        player.setSpawnDuration(System.nanoTime() - spawnStart);
         player.run();
 
         return player;
     }
 
+    /**
+     * Runs the starters of multiple processes at the same time. If any of
+     * them fails, the processes that did start are shut down, or returned
+     * to the bot pool if they came from it.
+     * @param starters Callables that each create and start a process
+     * @return The started processes, in the order of the starters
+     */
+    protected List<IOWrapper> startAll(List<Callable<IOWrapper>> starters) {
+        List<Future<IOWrapper>> futures = new ArrayList<>();
+        for (Callable<IOWrapper> callable : starters) {
+            futures.add(starter.submit(callable));
+        }
+
+        List<IOWrapper> started = new ArrayList<>();
+        RuntimeException failure = null;
+
+        for (Future<IOWrapper> future : futures) {
+            try {
+                started.add(future.get());
+            } catch (ExecutionException ex) {
+                if (failure == null) {
+                    failure = ex.getCause() instanceof RuntimeException
+                            ? (RuntimeException) ex.getCause()
+                            : new RuntimeException(ex.getCause());
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                future.cancel(true);
+                if (failure == null) {
+                    failure = new RuntimeException("Interrupted while starting processes");
+                }
+            }
+        }
+
+        if (failure != null) {
+            for (IOWrapper process : started) {
+                if (process instanceof IOPlayer) {
+                    releasePlayer((IOPlayer) process);
+                } else {
+                    process.finish();
+                }
+            }
+            throw failure;
+        }
+
+        return started;
+    }
+
+    /**
+     * Shuts down the player, or returns it to the bot pool if
+     * it was started as a reusable bot
+     * @param player Player that has finished the match
+     * @return The exit status of the player
+     */
+    protected int releasePlayer(IOPlayer player) {
+        if (player.getPoolKey() == null) {
+            return player.finish();
+        }
+
+        return PlayerPool.getShared().release(player, this.context);
+    }
+
+    /**
+     * @return Bot pool statistics for this match and the whole pool,
+     * null if the bot pool is disabled
+     */
+    protected JSONObject getPoolStats() {
+        if (!this.context.isBotPoolEnabled()) {
+            return null;
+        }
+
+        JSONObject stats = new JSONObject();
+        stats.put("hits", this.poolHits);
+        stats.put("misses", this.poolMisses);
+        stats.put("pool", PlayerPool.getShared().getStats());
+
+        return stats;
+    }
+
+    /**
+     * @param wrapper Wrapper of the process
+     * @return Peak memory (kB), CPU time (ms) and I/O bytes of the process
+     */
+    protected JSONObject createResourceResult(IOWrapper wrapper) {
+        ProcessStats stats = wrapper.sampleProcessStats();
+
+        JSONObject resources = new JSONObject();
+        resources.put("peakMemory", stats.getPeakRss());
+        resources.put("cpuTime", stats.getCpuTime());
+        resources.put("readBytes", stats.getReadBytes());
+        resources.put("writeBytes", stats.getWriteBytes());
+
+        if (stats.getAllocatedBytes() >= 0) {
+            resources.put("allocatedBytes", stats.getAllocatedBytes());
+        }
+
+        return resources;
+    }
+
+    /**
+     * @param wrapper Wrapper of the process
+     * @return Time it took to start the process and time until it was
+     * ready, both in microseconds, the latter -1 if unknown
+     */
+    protected JSONObject createStartupResult(IOWrapper wrapper) {
+        long readyDuration = wrapper.getReadyDuration();
+
+        JSONObject startup = new JSONObject();
+        startup.put("spawnTime", TimeUnit.NANOSECONDS.toMicros(wrapper.getSpawnDuration()));
+        startup.put("readyTime", readyDuration < 0 ? -1 : TimeUnit.NANOSECONDS.toMicros(readyDuration));
+
+        return startup;
+    }
+
+    /**
+     * Creates the latency results of a process, for every measured phase
+     * of a turn the count, p50, p90, p99 and max in microseconds
+     * @param wrapper Wrapper of the process
+     * @return Latency results
+     */
+    protected JSONObject createLatencyResult(IOWrapper wrapper) {
+        return createLatencyResult(wrapper.getLatencyStats());
+    }
+
+    /**
+     * @param stats Latency histograms of a process or engine
+     * @return Latency results
+     */
+    protected JSONObject createLatencyResult(LatencyStats stats) {
+        JSONObject latency = new JSONObject();
+
+        stats.getHistograms().forEach(
+                (phase, histogram) -> latency.put(phase, createHistogramResult(histogram)));
+
+        return latency;
+    }
+
+    /**
+     * @param histogram Latency histogram
+     * @return The count, p50, p90, p99 and max of the histogram in microseconds
+     */
+    protected JSONObject createHistogramResult(LatencyHistogram histogram) {
+        JSONObject result = new JSONObject();
+        result.put("count", histogram.getCount());
+        result.put("p50", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(50)));
+        result.put("p90", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(90)));
+        result.put("p99", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(99)));
+        result.put("max", TimeUnit.NANOSECONDS.toMicros(histogram.getMax()));
+
+        return result;
+    }
+
+    private synchronized IOPlayer acquirePlayer(String poolKey, int id, String resetCommand) {
+        if (resetCommand == null || !this.context.isBotPoolEnabled()) {
+            return null;
+        }
+
+        IOPlayer player = PlayerPool.getShared().acquire(poolKey, id, this.context);
+
+        if (player == null) {
+            this.poolMisses++;
+        } else {
+            if (this.context.isDebug()) {
+                System.out.println("reusing: " + poolKey);
+            }
+            this.poolHits++;
+        }
+
+        return player;
+    }
+
+    private void registerPlayer(IOPlayer player, String poolKey, String resetCommand) {
+        if (resetCommand == null || !this.context.isBotPoolEnabled()) {
+            return;
+        }
+
+        player.setReusable(poolKey, resetCommand);
+        PlayerPool.getShared().register(player);
+    }
+
     protected IOEngine createEngine(String command, JSONObject engineConfig) throws IOException {
-        IOEngine engine = new IOEngine(wrapCommand(command), engineConfig);
+        long spawnStart = System.nanoTime();
+        IOEngine engine = new IOEngine(wrapCommand(command), engineConfig, this.context);
+        engine.setSpawnDuration(System.nanoTime() - spawnStart);
         engine.run();
 
         return engine;
     }
 
     protected IOEngine createEngine(String[] commandParts, JSONObject engineConfig) throws IOException {
-        IOEngine engine = new IOEngine(wrapCommand(commandParts), engineConfig);
+        long spawnStart = System.nanoTime();
+        IOEngine engine = new IOEngine(wrapCommand(commandParts), engineConfig, this.context);
+        engine.setSpawnDuration(System.nanoTime() - spawnStart);
         engine.run();
 
         return engine;
     }
 
+    /**
+     * Creates and starts the subject of a scenario, suite or replay
+     * @param subjectConfig Configuration of the subject, with its type and command
+     * @return The started bot or engine
+     * @throws IOException exception
+     */
+    protected IOWrapper createSubject(JSONObject subjectConfig) throws IOException {
+        String subjectCommand = null;
+        String[] subjectCommandParts = null;
+        if (commandIsString(subjectConfig)) {
+            subjectCommand = subjectConfig.getString("command");
+        } else {
+            subjectCommandParts = jsonArrayToStringArray(subjectConfig.getJSONArray("command"));
+        }
+
+        switch (subjectConfig.getString("type")) {
+            case "bot":
+                if (subjectCommand != null) {
+                    return createPlayer(subjectCommand, 0);
+                } else {
+                    return createPlayer(subjectCommandParts, 0);
+                }
+            case "engine":
+                JSONObject engineConfig = new JSONObject();
+                try {
+                    engineConfig = subjectConfig.getJSONObject("configuration");
+                } catch (JSONException ignored) {}
+
+                if (subjectCommand != null) {
+                    return createEngine(subjectCommand, engineConfig);
+                } else {
+                    return createEngine(subjectCommandParts, engineConfig);
+                }
+        }
+
+        throw new RuntimeException("Subject should have type bot or engine");
+    }
+
     protected void setResults(JSONObject value) {
         this.results = value;
     }
@@ -80,7 +384,7 @@ public abstract class AbstractRunner implements Reportable {
      */
     private Process wrapCommand(String command) throws IOException {
         System.out.println("executing: " + command);
-        return Runtime.getRuntime().exec(command);
+        return this.isolation.start(command);
     }
 
     /**
@@ -91,7 +395,7 @@ public abstract class AbstractRunner implements Reportable {
      */
     private Process wrapCommand(String[] commandParts) throws IOException {
         System.out.println("executing: [\"" + String.join("\", \"", commandParts) + "\"]");
-        return Runtime.getRuntime().exec(commandParts);
+        return this.isolation.start(commandParts);
     }
 
     protected boolean commandIsString(JSONObject config) {
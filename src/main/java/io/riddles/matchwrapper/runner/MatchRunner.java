@@ -18,14 +18,25 @@
 package io.riddles.matchwrapper.runner;
 
 import io.riddles.matchwrapper.EngineAPI;
+import io.riddles.matchwrapper.MatchContext;
+import io.riddles.matchwrapper.io.EngineHandle;
 import io.riddles.matchwrapper.io.IOEngine;
 import io.riddles.matchwrapper.io.IOPlayer;
+import io.riddles.matchwrapper.io.IOWrapper;
+import io.riddles.matchwrapper.io.InProcessEngine;
+import io.riddles.matchwrapper.io.LatencyHistogram;
+import io.riddles.matchwrapper.io.LatencyStats;
+import io.riddles.matchwrapper.io.TrafficRecorder;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -39,11 +50,13 @@ import java.util.ArrayList;
 public class MatchRunner extends AbstractRunner implements Runnable, Reportable {
 
     private EngineAPI api;
-    private IOEngine engine;
+    private EngineHandle engine; // engine process, or an engine running in this JVM
     private ArrayList<IOPlayer> players; // ArrayList containing player handlers
+    private TrafficRecorder recorder; // records the traffic of all processes, null if not recording
+    private boolean released; // true once the engine and players are shut down or back in the pool
 
-    public MatchRunner() {
-        super();
+    public MatchRunner(MatchContext context) {
+        super(context);
         this.engine = null;
         this.players = new ArrayList<>();
     }
@@ -57,41 +70,117 @@ public class MatchRunner extends AbstractRunner implements Runnable, Reportable
      *
      *         }
      *     },
+     * or, for an engine in this JVM:
+     *     engine: {
+     *         jar: String,
+     *         class: String,
+     *         configuration: {
+     *
+     *         }
+     *     },
      *     bots: [
      *         {
      *             command: String
+     *         },
+     *         or, for a Java bot in this JVM:
+     *         {
+     *             jar: String,
+     *             class: String,
+     *             args: [String] (optional)
      *         }
      *     ]
      * }
+     * The engine and all bots are started at the same time, an engine in
+     * this JVM is loaded before the bots are started.
      * @param config Matchrunner configuration
+     * @throws IOException if the recording can't be created
      */
     @Override
-    public void prepare(JSONObject config) {
+    public void prepare(JSONObject config) throws IOException {
 
         if (!config.has("engine")) {
             throw new RuntimeException("No configuration present for engine");
         }
 
-        JSONObject engineConfig = config.getJSONObject("engine");
-        prepareEngine(engineConfig);
-
         if (!config.has("bots")) {
             throw new RuntimeException("No bots found in configuration");
         }
 
+        JSONObject engineConfig = config.getJSONObject("engine");
         JSONArray bots = config.getJSONArray("bots");
 
-        try {
-            bots.forEach(botConfig -> this.prepareBot((JSONObject) botConfig));
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new RuntimeException("Failed to start bot.");
+        boolean inProcess = engineConfig.has("jar");
+        if (inProcess) {
+            this.engine = loadEngine(engineConfig);
+        }
+
+        List<Callable<IOWrapper>> starters = new ArrayList<>();
+        if (!inProcess) {
+            starters.add(() -> prepareEngine(engineConfig));
+        }
+        for (int i = 0; i < bots.length(); i++) {
+            JSONObject botConfig = bots.getJSONObject(i);
+            int id = i;
+            starters.add(() -> prepareBot(botConfig, id));
+        }
+
+        List<IOWrapper> started = startAll(starters);
+        if (!inProcess) {
+            this.engine = (IOEngine) started.get(0);
+        }
+        for (IOWrapper bot : started.subList(inProcess ? 0 : 1, started.size())) {
+            this.players.add((IOPlayer) bot);
+        }
+
+        if (this.context.getRecordFilePath() != null) {
+            startRecording(this.context.getRecordFilePath());
+        }
+
+        awaitReady(bots);
+    }
+
+    /**
+     * Records all traffic between the wrapper and the processes
+     * to a file, until the match is over
+     * @param path Path of the recording
+     * @throws IOException if the file can't be created
+     */
+    private void startRecording(String path) throws IOException {
+        this.recorder = new TrafficRecorder(path);
+        if (this.engine instanceof IOEngine) {
+            ((IOEngine) this.engine).setRecorder(this.recorder, TrafficRecorder.ENGINE);
+        }
+
+        for (int i = 0; i < this.players.size(); i++) {
+            this.players.get(i).setRecorder(this.recorder, i);
+        }
+    }
+
+    /**
+     * Sends the ready command to every bot that has one and waits
+     * until they have answered, so bots start up at the same time
+     * and not in their timebank
+     * @param bots Configuration of all bots
+     */
+    private void awaitReady(JSONArray bots) {
+        long[] sequences = new long[bots.length()];
+
+        for (int i = 0; i < sequences.length; i++) {
+            String readyCommand = bots.getJSONObject(i).optString("readyCommand", null);
+            sequences[i] = readyCommand != null ? this.players.get(i).sendReadyCheck(readyCommand) : -1;
+        }
+
+        long timeout = this.context.getStartupTimeout();
+        for (int i = 0; i < sequences.length; i++) {
+            if (sequences[i] >= 0 && !this.players.get(i).awaitReady(sequences[i], timeout)) {
+                System.err.println(String.format("Bot %d was not ready within %dms", i, timeout));
+            }
         }
     }
 
     @Override
     public void run() throws IOException {
-        this.api = new EngineAPI(this.engine, this.players);
+        this.api = new EngineAPI(this.context, this.engine, this.players);
         this.api.run();
     }
 
@@ -99,11 +188,36 @@ public class MatchRunner extends AbstractRunner implements Runnable, Reportable
     public int postrun(long timeElapsed) {
         setResults(createResults(timeElapsed));
 
-        int playerStatusSum = this.players.stream().mapToInt(IOPlayer::finish).sum();
+        return release() > 0 ? 1 : 0;
+    }
+
+    @Override
+    public void abort() {
+        if (!this.released) {
+            release();
+        }
+    }
+
+    /**
+     * Shuts down the engine and returns the players to the pool,
+     * or shuts them down, and stops the recording
+     * @return The sum of the exit statuses
+     */
+    private int release() {
+        this.released = true;
+
+        this.players.forEach(player -> player.setRecorder(null, 0));
+        int statusSum = this.players.stream().mapToInt(this::releasePlayer).sum();
+
+        if (this.engine != null) {
+            statusSum += this.engine.finish();
+        }
 
-        int engineStatus = this.engine.finish();
+        if (this.recorder != null) {
+            this.recorder.close();
+        }
 
-        return playerStatusSum + engineStatus > 0 ? 1 : 0;
+        return statusSum;
     }
 
     private JSONObject createResults(long timeElapsed) {
@@ -111,17 +225,17 @@ public class MatchRunner extends AbstractRunner implements Runnable, Reportable
         JSONObject output = new JSONObject();
         JSONArray players = new JSONArray();
 
-        String details = this.api.askGameDetails();
-        String playedGame = this.api.askPlayedGame();
+        Object details = this.api.askGameDetails();
+        Object playedGame = this.api.askPlayedGame();
 
         for (IOPlayer player : this.players) {
 
             String log    = player.getDump();
             String errors = player.getStderr();
 
-            JSONArray responseTimes = new JSONArray(player.getResponseTimes());
-            long totalResponseTime = player.getResponseTimes().stream()
-                    .reduce(0L, (a, b) -> a + b);
+            long[] playerResponseTimes = player.getResponseTimes();
+            JSONArray responseTimes = new JSONArray(playerResponseTimes);
+            long totalResponseTime = Arrays.stream(playerResponseTimes).sum();
 
             JSONObject playerOutput = new JSONObject();
             playerOutput.put("log", log);
@@ -129,6 +243,16 @@ public class MatchRunner extends AbstractRunner implements Runnable, Reportable
             playerOutput.put("responseTimes", responseTimes);
             playerOutput.put("totalResponseTime", totalResponseTime);
 
+            if (this.context.isCpuTimebank()) {
+                long[] playerCpuTimes = player.getCpuTimes();
+                playerOutput.put("cpuTimes", new JSONArray(playerCpuTimes));
+                playerOutput.put("totalCpuTime", Arrays.stream(playerCpuTimes).filter(t -> t > 0).sum());
+            }
+
+            playerOutput.put("startup", createStartupResult(player));
+            playerOutput.put("resources", createResourceResult(player));
+            playerOutput.put("latency", createLatencyResult(player));
+
             players.put(playerOutput);
         }
 
@@ -137,9 +261,58 @@ public class MatchRunner extends AbstractRunner implements Runnable, Reportable
         output.put("game", playedGame);
         output.put("players", players);
 
+        JSONObject engineOutput = new JSONObject();
+        if (this.engine instanceof IOEngine) {
+            engineOutput.put("startup", createStartupResult((IOEngine) this.engine));
+            engineOutput.put("resources", createResourceResult((IOEngine) this.engine));
+        } else {
+            engineOutput.put("inProcess", true);
+        }
+        engineOutput.put("latency", createLatencyResult(this.engine.getLatencyStats()));
+        output.put("engine", engineOutput);
+        output.put("overhead", createOverheadResult());
+
+        JSONObject poolStats = getPoolStats();
+        if (poolStats != null) {
+            output.put("botPool", poolStats);
+        }
+
         return output;
     }
 
+    /**
+     * Creates the latency results of the wrapper overhead of all bot
+     * responses together, flagged if its p99 exceeds the threshold
+     * @return Overhead results
+     */
+    private JSONObject createOverheadResult() {
+        LatencyHistogram overhead = new LatencyHistogram();
+        for (IOPlayer player : this.players) {
+            LatencyHistogram playerOverhead = player.getLatencyStats().get(LatencyStats.OVERHEAD);
+
+            if (playerOverhead != null) {
+                overhead.add(playerOverhead);
+            }
+        }
+
+        JSONObject result = createHistogramResult(overhead);
+
+        long threshold = this.context.getOverheadThreshold();
+        if (threshold > 0) {
+            long p99 = TimeUnit.NANOSECONDS.toMicros(overhead.getPercentile(99));
+            boolean exceeded = p99 > threshold;
+
+            if (exceeded) {
+                System.err.println(String.format(
+                        "Wrapper overhead p99 (%dus) exceeds threshold (%dus)", p99, threshold));
+            }
+
+            result.put("thresholdExceeded", exceeded);
+        }
+
+        return result;
+    }
+
     private void printGame() {
 
         System.out.println("Bot data:");
@@ -148,22 +321,36 @@ public class MatchRunner extends AbstractRunner implements Runnable, Reportable
             System.out.println(bot.getStdout());
             System.out.println(bot.getStderr());
         }
-        System.out.println("Engine data:");
-        System.out.println(this.engine.getStdout());
-        System.out.println(this.engine.getStderr());
+        if (this.engine instanceof IOEngine) {
+            System.out.println("Engine data:");
+            System.out.println(((IOEngine) this.engine).getStdout());
+            System.out.println(((IOEngine) this.engine).getStderr());
+        }
     }
 
-    private void prepareBot(JSONObject config) {
+    /**
+     * Creates and starts player (bot) process
+     * @param config Configuration of the bot
+     * @param id The player's ID
+     * @return The started player
+     */
+    private IOPlayer prepareBot(JSONObject config, int id) {
+
+        if (config.has("jar")) {
+            return prepareInJvmBot(config, id);
+        }
 
         if (!config.has("command")) {
             throw new RuntimeException("No command specified for bot.");
         }
 
+        String resetCommand = config.optString("resetCommand", null);
+
         try {
             if (commandIsString(config)) {
-                addPlayer(config.getString("command"));
+                return createPlayer(config.getString("command"), id, resetCommand);
             } else {
-                addPlayer(jsonArrayToStringArray(config.getJSONArray("command")));
+                return createPlayer(jsonArrayToStringArray(config.getJSONArray("command")), id, resetCommand);
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -171,7 +358,34 @@ public class MatchRunner extends AbstractRunner implements Runnable, Reportable
         }
     }
 
-    private void prepareEngine(JSONObject config) {
+    /**
+     * Loads a Java bot from its jar and starts it in this JVM
+     * @param config Configuration of the bot
+     * @param id The player's ID
+     * @return The started player
+     */
+    private IOPlayer prepareInJvmBot(JSONObject config, int id) {
+
+        if (!config.has("class")) {
+            throw new RuntimeException("No class specified for bot.");
+        }
+
+        String[] args = config.has("args") ? jsonArrayToStringArray(config.getJSONArray("args")) : new String[0];
+
+        try {
+            return createInJvmPlayer(config.getString("jar"), config.getString("class"), args, id);
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to start bot.");
+        }
+    }
+
+    /**
+     * Creates and starts engine process
+     * @param config Configuration of the engine
+     * @return The started engine
+     */
+    private IOEngine prepareEngine(JSONObject config) {
 
         if (!config.has("command")) {
             throw new RuntimeException("No command specified for engine.");
@@ -185,11 +399,17 @@ public class MatchRunner extends AbstractRunner implements Runnable, Reportable
         }
 
         try {
+            IOEngine engine;
             if (commandIsString(config)) {
-                setEngine(config.getString("command"), engineConfig);
+                engine = createEngine(config.getString("command"), engineConfig);
             } else {
-                setEngine(jsonArrayToStringArray(config.getJSONArray("command")), engineConfig);
+                engine = createEngine(jsonArrayToStringArray(config.getJSONArray("command")), engineConfig);
             }
+
+            engine.setPayloadFiles(config.optBoolean("payloadFiles", false));
+            engine.setFramingRequested(config.optBoolean("framing", false));
+
+            return engine;
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException("Failed to start engine.");
@@ -197,42 +417,32 @@ public class MatchRunner extends AbstractRunner implements Runnable, Reportable
     }
 
     /**
-     * Creates and starts player (bot) process and adds them
-     * to player list
-     * @param command Command to start process
-     * @throws IOException exception
+     * Loads an engine from a jar to run in this JVM
+     * @param config Configuration of the engine
+     * @return The loaded engine
      */
-    private void addPlayer(String command) throws IOException {
-        int id = this.players.size();
-        this.players.add(createPlayer(command, id));
-    }
+    private InProcessEngine loadEngine(JSONObject config) {
 
-    /**
-     * Creates and starts player (bot) process and adds them
-     * to player list
-     * @param commandParts Command parts to start process
-     * @throws IOException exception
-     */
-    private void addPlayer(String[] commandParts) throws IOException {
-        int id = this.players.size();
-        this.players.add(createPlayer(commandParts, id));
-    }
+        if (!config.has("class")) {
+            throw new RuntimeException("No class specified for engine.");
+        }
 
-    /**
-     * Creates and starts engine process
-     * @param command Command to start process
-     * @throws IOException exception
-     */
-    private void setEngine(String command, JSONObject engineConfig) throws IOException {
-        this.engine = createEngine(command, engineConfig);
-    }
+        JSONObject engineConfig;
+        try {
+            engineConfig = config.getJSONObject("configuration");
+        } catch (JSONException e) {
+            engineConfig = new JSONObject();
+        }
 
-    /**
-     * Creates and starts engine process
-     * @param commandParts Command parts to start process
-     * @throws IOException exception
-     */
-    private void setEngine(String[] commandParts, JSONObject engineConfig) throws IOException {
-        this.engine = createEngine(commandParts, engineConfig);
+        try {
+            InProcessEngine engine = InProcessEngine.load(
+                    config.getString("jar"), config.getString("class"), engineConfig, this.context);
+            engine.setPayloadFiles(config.optBoolean("payloadFiles", false));
+
+            return engine;
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new RuntimeException("Failed to load engine.");
+        }
     }
 }
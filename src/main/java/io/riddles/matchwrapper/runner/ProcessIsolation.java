@@ -0,0 +1,378 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.runner;
+
+import io.riddles.matchwrapper.MatchContext;
+import io.riddles.matchwrapper.io.ErrorFileProcess;
+import io.riddles.matchwrapper.io.StreamReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ProcessIsolation class
+ *
+ * Starts the engine and bot processes of a match on limited cpus. If a
+ * cgroup v2 directory is configured, every process gets a group of its own
+ * in it with a cpu.max quota and a cpuset, and joins it before its command
+ * runs, so all its children are limited too. If the group can't be created
+ * or joined, the process is started with taskset affinity instead, which
+ * can't apply a quota. The wrapper's reader threads are shared by all
+ * matches in the JVM, so they are pinned to the reserved cpus of the first
+ * match that has them.
+ * When cgroups or taskset aren't permitted or supported, they aren't tried
+ * again, other failures only affect the process that was being started.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+class ProcessIsolation {
+
+    private static final long CPU_PERIOD = 100000L; // microseconds
+    // $0 is cgroup.procs of the group and $1 the cpus, joins the group or else uses taskset if possible
+    private static final String JOIN_GROUP = "cpus=$1; shift; "
+            + "if echo $$ 2>/dev/null > \"$0\" || [ -z \"$cpus\" ] || ! command -v taskset > /dev/null; "
+            + "then exec \"$@\"; fi; "
+            + "exec taskset -c \"$cpus\" \"$@\"";
+
+    private static final AtomicInteger nextCpu = new AtomicInteger();
+    private static final AtomicLong nextGroup = new AtomicLong();
+    private static String readerCpus; // cpus the reader threads are pinned to, null if not pinned
+    private static boolean readerCpusWarned = false;
+    private static volatile boolean tasksetMissing = false;
+    private static volatile boolean cgroupUnusable = false;
+
+    private MatchContext context;
+    private int[] cpus; // cpus processes may run on, null if they are not limited
+
+    ProcessIsolation(MatchContext context) {
+        this.context = context;
+
+        if (context.isCpuIsolationEnabled()) {
+            this.cpus = resolveCpus(context);
+        }
+    }
+
+    /**
+     * Starts a process, split into parts on whitespace
+     * @param command Command to start process
+     * @return The started process
+     * @throws IOException exception
+     */
+    Process start(String command) throws IOException {
+        StringTokenizer tokenizer = new StringTokenizer(command);
+        String[] commandParts = new String[tokenizer.countTokens()];
+        for (int i = 0; i < commandParts.length; i++) {
+            commandParts[i] = tokenizer.nextToken();
+        }
+
+        return start(commandParts);
+    }
+
+    /**
+     * Starts a process in a cgroup or with cpu affinity, if enabled,
+     * with its stderr written to a file that is tailed
+     * @param commandParts Command parts to start process
+     * @return The started process
+     * @throws IOException exception
+     */
+    Process start(String[] commandParts) throws IOException {
+        if (!this.context.isCpuIsolationEnabled()) {
+            return ErrorFileProcess.start(new ProcessBuilder(commandParts));
+        }
+
+        pinReaders(this.context.getReservedCpus());
+
+        String cpuList = nextCpuList();
+        Path group = createGroup(cpuList);
+
+        if (group != null) {
+            Process process = ErrorFileProcess.start(new ProcessBuilder(prepend(commandParts,
+                    "sh", "-c", JOIN_GROUP, group.resolve("cgroup.procs").toString(),
+                    cpuList != null && !tasksetMissing ? cpuList : "")));
+            process.onExit().thenRun(() -> removeGroup(group));
+
+            return process;
+        }
+
+        if (cpuList != null && !tasksetMissing) {
+            try {
+                return ErrorFileProcess.start(new ProcessBuilder(prepend(commandParts, "taskset", "-c", cpuList)));
+            } catch (IOException ex) {
+                tasksetMissing = isTasksetMissing();
+                System.err.println(String.format("Can't set cpu affinity: %s", ex.getMessage()));
+            }
+        }
+
+        return ErrorFileProcess.start(new ProcessBuilder(commandParts));
+    }
+
+    /**
+     * @return The cpus for the next process, null if not limited
+     */
+    private String nextCpuList() {
+        if (this.cpus == null) return null;
+
+        if (this.context.isPinProcesses()) {
+            int index = Math.floorMod(nextCpu.getAndIncrement(), this.cpus.length);
+            return String.valueOf(this.cpus[index]);
+        }
+
+        StringBuilder cpuList = new StringBuilder();
+        for (int cpu : this.cpus) {
+            if (cpuList.length() > 0) cpuList.append(',');
+            cpuList.append(cpu);
+        }
+
+        return cpuList.toString();
+    }
+
+    /**
+     * Creates a cgroup for a single process
+     * @param cpuList Cpus the process may run on, null for all
+     * @return The directory of the group, null if no group could be created
+     */
+    private Path createGroup(String cpuList) {
+        String cgroupRoot = this.context.getCgroupRoot();
+        if (cgroupRoot == null || cgroupUnusable) return null;
+
+        Path root = Paths.get(cgroupRoot);
+        Path group = root.resolve(String.format("wrapper-%d-%d",
+                ProcessHandle.current().pid(), nextGroup.incrementAndGet()));
+
+        try {
+            enableController(root, "cpu");
+            enableController(root, "cpuset");
+            Files.createDirectory(group);
+
+            double quota = this.context.getCpuQuota();
+            if (quota > 0) {
+                write(group.resolve("cpu.max"), String.format("%d %d", (long) (quota * CPU_PERIOD), CPU_PERIOD));
+            }
+            if (cpuList != null) {
+                write(group.resolve("cpuset.cpus"), cpuList);
+            }
+
+            return group;
+        } catch (IOException | RuntimeException ex) {
+            cgroupUnusable = isUnusable(ex);
+            System.err.println(String.format("Can't use cgroup %s (%s), using cpu affinity %s",
+                    cgroupRoot, ex, cgroupUnusable ? "from now on" : "for this process"));
+            removeGroup(group);
+
+            return null;
+        }
+    }
+
+    /**
+     * @return True if given error creating a cgroup will happen for every
+     * process: the wrapper may not use the cgroup root, or it doesn't exist
+     * or doesn't have the cpu controllers
+     */
+    private static boolean isUnusable(Exception ex) {
+        if (ex instanceof AccessDeniedException || ex instanceof NoSuchFileException
+                || ex instanceof SecurityException) {
+            return true;
+        }
+
+        String message = String.valueOf(ex.getMessage());
+        return message.contains("Operation not permitted") || message.contains("Read-only file system");
+    }
+
+    /**
+     * @return True if there is no taskset program on the path
+     */
+    private static boolean isTasksetMissing() {
+        String path = System.getenv("PATH");
+        if (path == null) return true;
+
+        for (String directory : path.split(File.pathSeparator)) {
+            if (Files.isExecutable(Paths.get(directory, "taskset"))) return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Removes a cgroup after its process has ended. Processes that
+     * are still in it, left behind by the process, are killed.
+     * @param group Directory of the group
+     */
+    private static void removeGroup(Path group) {
+        for (int attempt = 0; attempt < 10; attempt++) {
+            try {
+                Files.deleteIfExists(group);
+                return;
+            } catch (IOException ex) {
+                try {
+                    write(group.resolve("cgroup.kill"), "1");
+                    TimeUnit.MILLISECONDS.sleep(10);
+                } catch (IOException ignored) {
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private static void enableController(Path root, String controller) {
+        try {
+            write(root.resolve("cgroup.subtree_control"), "+" + controller);
+        } catch (IOException ignored) {} // might be enabled already by whoever created the root
+    }
+
+    /**
+     * Pins the wrapper's reader threads to given cpus, once per JVM.
+     * Reader threads that are started later are pinned when they start.
+     * Other reserved cpus of later matches are ignored, with a warning.
+     * @param reservedCpus The reserved cpus, null if there are none
+     */
+    private static synchronized void pinReaders(String reservedCpus) {
+        if (reservedCpus == null) return;
+
+        if (readerCpus != null) {
+            if (!readerCpus.equals(reservedCpus) && !readerCpusWarned) {
+                readerCpusWarned = true;
+                System.err.println(String.format(
+                        "Reader threads stay pinned to cpus %s, reserved cpus %s are ignored",
+                        readerCpus, reservedCpus));
+            }
+            return;
+        }
+        readerCpus = reservedCpus;
+
+        StreamReader.getShared().setThreadListener(threadId -> pinReader(threadId, reservedCpus));
+    }
+
+    private static void pinReader(long threadId, String reservedCpus) {
+        if (tasksetMissing) return;
+
+        Process taskset;
+        try {
+            taskset = new ProcessBuilder(
+                    "taskset", "-p", "-c", reservedCpus, Long.toString(threadId))
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectErrorStream(true)
+                    .start();
+        } catch (IOException ex) {
+            tasksetMissing = isTasksetMissing(); // then no use trying again for every thread
+            System.err.println(String.format("Can't pin reader threads: %s", ex.getMessage()));
+            return;
+        }
+
+        try {
+            if (taskset.waitFor() != 0) {
+                System.err.println(String.format("Can't pin reader thread %d", threadId));
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return The cpus processes may run on, the configured cpus or all
+     * cpus the wrapper may use except the reserved ones, null for all
+     */
+    private static int[] resolveCpus(MatchContext context) {
+        TreeSet<Integer> cpus;
+
+        if (context.getProcessCpus() != null) {
+            cpus = parseCpuList(context.getProcessCpus());
+        } else if (context.getReservedCpus() != null || context.isPinProcesses()) {
+            cpus = getAllowedCpus();
+            if (context.getReservedCpus() != null) {
+                cpus.removeAll(parseCpuList(context.getReservedCpus()));
+            }
+        } else {
+            return null;
+        }
+
+        if (cpus.isEmpty()) {
+            throw new RuntimeException("No cpus left for the processes");
+        }
+
+        return cpus.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return The cpus this JVM may run on
+     */
+    private static TreeSet<Integer> getAllowedCpus() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/status"), StandardCharsets.UTF_8)) {
+                if (line.startsWith("Cpus_allowed_list:")) {
+                    return parseCpuList(line.substring(line.indexOf(':') + 1));
+                }
+            }
+        } catch (IOException ignored) {} // no /proc, assume the cpus are numbered from 0
+
+        TreeSet<Integer> cpus = new TreeSet<>();
+        for (int i = 0; i < Runtime.getRuntime().availableProcessors(); i++) {
+            cpus.add(i);
+        }
+
+        return cpus;
+    }
+
+    /**
+     * @param cpuList List of cpus like "0-3,6"
+     * @return The cpus in the list
+     */
+    static TreeSet<Integer> parseCpuList(String cpuList) {
+        TreeSet<Integer> cpus = new TreeSet<>();
+
+        for (String range : cpuList.trim().split(",")) {
+            if (range.isEmpty()) continue;
+
+            String[] bounds = range.split("-");
+            int first = Integer.parseInt(bounds[0].trim());
+            int last = bounds.length > 1 ? Integer.parseInt(bounds[1].trim()) : first;
+
+            for (int cpu = first; cpu <= last; cpu++) {
+                cpus.add(cpu);
+            }
+        }
+
+        return cpus;
+    }
+
+    private static String[] prepend(String[] commandParts, String... prefix) {
+        List<String> parts = new ArrayList<>(Arrays.asList(prefix));
+        parts.addAll(Arrays.asList(commandParts));
+
+        return parts.toArray(new String[0]);
+    }
+
+    private static void write(Path path, String value) throws IOException {
+        Files.write(path, value.getBytes(StandardCharsets.UTF_8));
+    }
+}
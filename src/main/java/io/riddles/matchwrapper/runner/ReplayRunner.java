@@ -0,0 +1,139 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.runner;
+
+import io.riddles.matchwrapper.MatchContext;
+import io.riddles.matchwrapper.io.IOWrapper;
+import io.riddles.matchwrapper.io.TrafficLog;
+import io.riddles.matchwrapper.io.TrafficRecorder;
+import io.riddles.matchwrapper.io.TrafficReplay;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ReplayRunner class
+ *
+ * Replays the recorded traffic of one bot or the engine of a match
+ * to a new process, without any other processes, to benchmark it
+ * against real game traffic.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class ReplayRunner extends AbstractRunner implements Runnable, Reportable {
+
+    private IOWrapper subject;
+    private TrafficReplay replay;
+
+    public ReplayRunner(MatchContext context) {
+        super(context);
+    }
+
+    /**
+     * Config looks as follows:
+     * {
+     *     file: String,
+     *     subject: {
+     *         command: String,
+     *         type: "bot" or "engine",
+     *         id: Integer (bot id in the recording, 0 by default)
+     *     },
+     *     speed: Double (optional, 1 is real time, 0 as fast as possible),
+     *     timeout: Long (optional, time to answer a write in milliseconds)
+     * }
+     * @param config Replay configuration
+     * @throws IOException if the recording can't be read
+     */
+    @Override
+    public void prepare(JSONObject config) throws IOException {
+        JSONObject subjectConfig = config.getJSONObject("subject");
+        int process = subjectConfig.getString("type").equals("engine")
+                ? TrafficRecorder.ENGINE
+                : subjectConfig.optInt("id", 0);
+
+        List<TrafficLog.Entry> entries = TrafficLog.read(config.getString("file")).getEntries(process);
+        if (entries.isEmpty()) {
+            throw new RuntimeException(String.format("Recording contains no traffic of %s",
+                    process == TrafficRecorder.ENGINE ? "the engine" : "bot " + process));
+        }
+
+        this.subject = createSubject(subjectConfig);
+        this.replay = new TrafficReplay(this.subject, entries,
+                config.optDouble("speed", 1.0), config.optLong("timeout", 10000L));
+    }
+
+    @Override
+    public void run() {
+        JSONObject result = new JSONObject();
+
+        try {
+            this.replay.play();
+            result.put("status", "ok");
+        } catch (IOException exception) {
+            result.put("status", "error");
+            result.put("error", new JSONObject().put("message", exception.getMessage()));
+        }
+
+        result.put("replay", createReplayResult());
+
+        JSONObject subjectResult = new JSONObject();
+        subjectResult.put("errors", this.subject.getStderr());
+        subjectResult.put("resources", createResourceResult(this.subject));
+        result.put("subject", subjectResult);
+
+        setResults(result);
+    }
+
+    @Override
+    public int postrun(long timeElapsed) {
+        this.subject.finish();
+
+        return 0;
+    }
+
+    @Override
+    public void abort() {
+        if (this.subject != null) {
+            this.subject.finish();
+        }
+    }
+
+    private JSONObject createReplayResult() {
+        List<Long> latencies = this.replay.getLatencies();
+        long duration = this.replay.getDuration();
+
+        JSONArray latencyResults = new JSONArray();
+        for (long latency : latencies) {
+            latencyResults.put(TimeUnit.NANOSECONDS.toMicros(latency));
+        }
+
+        JSONObject result = new JSONObject();
+        result.put("writes", this.replay.getWrites());
+        result.put("responses", latencies.size());
+        result.put("recordedTime", TimeUnit.NANOSECONDS.toMillis(this.replay.getRecordedDuration()));
+        result.put("wallTime", TimeUnit.NANOSECONDS.toMillis(duration));
+        result.put("throughput", duration > 0 ? latencies.size() * 1e9 / duration : 0);
+        result.put("latency", createHistogramResult(this.replay.getHistogram()));
+        result.put("latencies", latencyResults);
+
+        return result;
+    }
+}
@@ -31,4 +31,10 @@ public interface Runnable {
     void prepare(JSONObject config) throws IOException;
     void run() throws IOException;
     int postrun(long timeElapsed) throws IOException;
+
+    /**
+     * Shuts down the processes that were started, when
+     * the match failed before postrun was done
+     */
+    void abort();
 }
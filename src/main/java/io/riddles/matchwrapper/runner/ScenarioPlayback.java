@@ -0,0 +1,234 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.runner;
+
+import io.riddles.matchwrapper.io.IOWrapper;
+import io.riddles.matchwrapper.io.LatencyHistogram;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * ScenarioPlayback class
+ *
+ * Feeds a scenario to a subject and measures the latency of every
+ * action. A scenario line is either a string or an object with the
+ * line, an optional latency budget in milliseconds and an optional
+ * pattern the response must match:
+ * { line: "action move 1000", budget: 50, expect: "place_disc \\d" }
+ * The scenario fails when an action isn't answered, when a response
+ * is over its budget or doesn't match, or when the p95 of an action
+ * is over the p95 budget.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+class ScenarioPlayback {
+
+    private IOWrapper subject;
+    private JSONArray scenario;
+    private Pattern[] expectations; // pattern every scenario line's response must match, null for none
+    private long p95Budget; // in milliseconds, 0 is no budget
+    private JSONArray actionResults;
+    private Map<String, LatencyHistogram> histograms;
+    private String violation; // first exceeded budget or mismatch
+
+    ScenarioPlayback(IOWrapper subject, JSONArray scenario, Pattern[] expectations, long p95Budget) {
+        this.subject = subject;
+        this.scenario = scenario;
+        this.expectations = expectations;
+        this.p95Budget = p95Budget;
+        this.actionResults = new JSONArray();
+        this.histograms = new LinkedHashMap<>();
+    }
+
+    /**
+     * Compiles the patterns the responses in a scenario must match,
+     * once for every time the scenario is played
+     * @param scenario The scenario
+     * @return The pattern of every scenario line, null for lines without one
+     * @throws IOException if a pattern is invalid
+     */
+    static Pattern[] compileExpectations(JSONArray scenario) throws IOException {
+        Pattern[] expectations = new Pattern[scenario.length()];
+
+        for (int i = 0; i < expectations.length; i++) {
+            JSONObject entry = scenario.optJSONObject(i);
+            String expect = entry != null ? entry.optString("expect", null) : null;
+            if (expect == null) continue;
+
+            try {
+                expectations[i] = Pattern.compile(expect);
+            } catch (PatternSyntaxException ex) {
+                throw new IOException(String.format("Invalid expect pattern '%s': %s",
+                        expect, ex.getDescription()));
+            }
+        }
+
+        return expectations;
+    }
+
+    /**
+     * Feeds the scenario to the subject, every action must be answered
+     * @throws IOException if the subject didn't answer an action in time,
+     * or if a budget was exceeded or a response didn't match
+     */
+    void play() throws IOException {
+        long timeout = getScenarioTimeout();
+
+        for (int i = 0; i < this.scenario.length(); i++) {
+            JSONObject entry = this.scenario.optJSONObject(i);
+            String line = entry != null ? entry.getString("line") : this.scenario.getString(i);
+
+            if (line.length() <= 0) continue;
+
+            String[] split = line.split(" ");
+            if (!split[0].equals("action")) {
+                this.subject.send(line);
+            } else {
+                playAction(removeTimeFromAction(line), entry, this.expectations[i], timeout);
+            }
+        }
+
+        checkPercentiles();
+
+        if (this.violation != null) {
+            throw new IOException(this.violation);
+        }
+    }
+
+    /**
+     * @return Line, response and latency in microseconds of every action played
+     */
+    JSONArray getActionResults() {
+        return this.actionResults;
+    }
+
+    /**
+     * @return The count, p50, p95 and max latency of every action in microseconds
+     */
+    JSONObject getPercentileResults() {
+        JSONObject results = new JSONObject();
+
+        this.histograms.forEach((action, histogram) -> {
+            JSONObject result = new JSONObject();
+            result.put("count", histogram.getCount());
+            result.put("p50", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(50)));
+            result.put("p95", TimeUnit.NANOSECONDS.toMicros(histogram.getPercentile(95)));
+            result.put("max", TimeUnit.NANOSECONDS.toMicros(histogram.getMax()));
+            results.put(action, result);
+        });
+
+        return results;
+    }
+
+    private void playAction(String action, JSONObject entry, Pattern expectation, long timeout) throws IOException {
+        this.subject.setTimebank(timeout);
+
+        long start = System.nanoTime();
+        String response = this.subject.ask(action);
+        long latency = System.nanoTime() - start;
+
+        JSONObject result = new JSONObject();
+        result.put("line", action);
+        result.put("response", response);
+        result.put("latency", TimeUnit.NANOSECONDS.toMicros(latency));
+        this.actionResults.put(result);
+
+        if (response.isEmpty() || this.subject.isErrored()) {
+            throw new IOException(String.format("Response timed out (%dms)", timeout));
+        }
+
+        this.histograms.computeIfAbsent(action, key -> new LatencyHistogram()).record(latency);
+
+        if (entry == null) return;
+
+        long budget = entry.optLong("budget", 0);
+        if (budget > 0 && latency > TimeUnit.MILLISECONDS.toNanos(budget)) {
+            addViolation(result, String.format("Response to '%s' took %dus, over its budget of %dms",
+                    action, TimeUnit.NANOSECONDS.toMicros(latency), budget));
+        }
+
+        if (expectation != null && !expectation.matcher(response).matches()) {
+            addViolation(result, String.format("Response to '%s' was '%s', expected '%s'",
+                    action, response, expectation.pattern()));
+        }
+    }
+
+    private void checkPercentiles() {
+        if (this.p95Budget <= 0) return;
+
+        long budget = TimeUnit.MILLISECONDS.toNanos(this.p95Budget);
+        this.histograms.forEach((action, histogram) -> {
+            long p95 = histogram.getPercentile(95);
+
+            if (p95 > budget && this.violation == null) {
+                this.violation = String.format("p95 of '%s' was %dus, over the budget of %dms",
+                        action, TimeUnit.NANOSECONDS.toMicros(p95), this.p95Budget);
+            }
+        });
+    }
+
+    private void addViolation(JSONObject result, String message) {
+        result.put("error", message);
+
+        if (this.violation == null) {
+            this.violation = message;
+        }
+    }
+
+    private long getScenarioTimeout() {
+        try {
+            for (int i = 0; i < this.scenario.length(); i++) {
+                JSONObject entry = this.scenario.optJSONObject(i);
+                String action = entry != null ? entry.getString("line") : this.scenario.getString(i);
+                String[] split = action.split(" ");
+
+                if (split[1].equals("timebank")) {
+                    return Integer.parseInt(split[2]);
+                }
+            }
+        } catch(Exception ignored) {}
+
+        System.err.println("Failed to read timebank from scenario");
+        return 2000L;
+    }
+
+    // Time gets added by the line 'settings timebank [milliseconds]'
+    // in the IOPlayer/IOEngine, so removed here
+    private static String removeTimeFromAction(String action) {
+        String[] split = action.split(" ");
+
+        if (split.length != 3) {
+            return action;
+        }
+
+        try {
+            Integer.parseInt(split[2]);
+        } catch (Exception ignored) {
+            return action;
+        }
+
+        return String.format("%s %s", split[0], split[1]);
+    }
+}
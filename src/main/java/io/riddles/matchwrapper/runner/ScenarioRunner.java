@@ -17,21 +17,22 @@
 
 package io.riddles.matchwrapper.runner;
 
+import io.riddles.matchwrapper.MatchContext;
 import io.riddles.matchwrapper.io.IOPlayer;
 import io.riddles.matchwrapper.io.IOWrapper;
 import org.json.JSONArray;
-import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.io.IOException;
 import java.util.Objects;
+import java.util.regex.Pattern;
 
 /**
  * ScenarioRunner class
  *
  * Feeds a given scenario to a subject (typically a bot)
- * If the bot responds, status "ok" is stored. This is used for
- * the input test on Riddles.io.
+ * If the bot responds, within the latency budgets of the scenario,
+ * status "ok" is stored. This is used for the input test on Riddles.io.
  *
  * @author Niko van Meurs <niko@riddles.io>, Jim van Eeden <jim@riddles.io>
  */
@@ -40,78 +41,42 @@ public class ScenarioRunner extends AbstractRunner implements Runnable, Reportab
     private IOWrapper subject;
     private String subjectType;
     private JSONArray scenario;
+    private Pattern[] expectations;
+    private IOException scenarioError; // error in the scenario itself, null if it's valid
+    private long p95Budget;
+    private ScenarioPlayback playback;
 
-    public ScenarioRunner() {
-        super();
+    public ScenarioRunner(MatchContext context) {
+        super(context);
     }
 
     @Override
     public void prepare(JSONObject config) throws IOException {
         this.scenario = config.getJSONArray("scenario");
-        JSONObject subjectConfig = config.getJSONObject("subject");
-
-        String subjectCommand = null;
-        String[] subjectCommandParts = null;
-        if (commandIsString(subjectConfig)) {
-            subjectCommand = subjectConfig.getString("command");
-        } else {
-            subjectCommandParts = jsonArrayToStringArray(subjectConfig.getJSONArray("command"));
+        this.p95Budget = config.optLong("p95Budget", 0);
+        try {
+            this.expectations = ScenarioPlayback.compileExpectations(this.scenario);
+        } catch (IOException ex) {
+            this.scenarioError = ex;
         }
 
-        this.subjectType = subjectConfig.getString("type");
-
-        switch (this.subjectType) {
-            case "bot":
-                if (subjectCommand != null) {
-                    this.subject = createPlayer(subjectCommand, 0);
-                } else {
-                    this.subject = createPlayer(subjectCommandParts, 0);
-                }
-                return;
-            case "engine":
-                JSONObject engineConfig = new JSONObject();
-                try {
-                    engineConfig = subjectConfig.getJSONObject("configuration");
-                } catch (JSONException ignored) {}
-
-                if (subjectCommand != null) {
-                    this.subject = createEngine(subjectCommand, engineConfig);
-                } else {
-                    this.subject = createEngine(subjectCommandParts, engineConfig);
-                }
-
-                return;
-        }
+        JSONObject subjectConfig = config.getJSONObject("subject");
 
-        throw new RuntimeException("Scenario should contain a subject with type bot or engine");
+        this.subjectType = subjectConfig.getString("type");
+        this.subject = createSubject(subjectConfig);
     }
 
     public void run() {
         JSONObject result;
-        int scenarioSize = this.scenario.length();
-        long timeout = getScenarioTimeout();
-
-        try {
-            for (int i = 0; i < scenarioSize; i++) {
-                String line = this.scenario.getString(i);
 
-                if (line.length() <= 0) continue;
+        this.playback = new ScenarioPlayback(this.subject, this.scenario, this.expectations, this.p95Budget);
 
-                String[] split = line.split(" ");
-                if (!split[0].equals("action")) {
-                    this.subject.send(line);
-                } else {
-                    String action = removeTimeFromAction(line);
-
-                    this.subject.setTimebank(timeout);
-                    String response = this.subject.ask(action);
-
-                    if (response.isEmpty()) {
-                        throw new IOException(String.format("Response timed out (%dms)", timeout));
-                    }
-                }
+        try {
+            if (this.scenarioError != null) {
+                throw this.scenarioError;
             }
 
+            this.playback.play();
             result = createSuccessResult();
         } catch (IOException exception) {
             result = createErrorResult(exception);
@@ -122,41 +87,16 @@ public class ScenarioRunner extends AbstractRunner implements Runnable, Reportab
 
     @Override
     public int postrun(long timeElapsed) {
-        return 0;
-    }
-
-    private long getScenarioTimeout() {
-        try {
-            for (int i = 0; i < this.scenario.length(); i++) {
-                String action = this.scenario.getString(i);
-                String[] split = action.split(" ");
+        this.subject.finish();
 
-                if (split[1].equals("timebank")) {
-                    return Integer.parseInt(split[2]);
-                }
-            }
-        } catch(Exception ignored) {}
-
-        System.err.println("Failed to read timebank from scenario");
-        return 2000L;
+        return 0;
     }
 
-    // Time gets added by the line 'settings timebank [milliseconds]'
-    // in the IOPlayer/IOEngine, so removed here
-    private String removeTimeFromAction(String action) {
-        String[] split = action.split(" ");
-
-        if (split.length != 3) {
-            return action;
-        }
-
-        try {
-            Integer.parseInt(split[2]);
-        } catch (Exception ignored) {
-            return action;
+    @Override
+    public void abort() {
+        if (this.subject != null) {
+            this.subject.finish();
         }
-
-        return String.format("%s %s", split[0], split[1]);
     }
 
     private JSONObject createSuccessResult() {
@@ -181,6 +121,8 @@ public class ScenarioRunner extends AbstractRunner implements Runnable, Reportab
 
         JSONObject subjectResult = new JSONObject();
         subjectResult.put("errors", errors);
+        subjectResult.put("resources", createResourceResult(this.subject));
+        subjectResult.put("latency", createLatencyResult(this.subject));
 
         if (Objects.equals(this.subjectType, "bot")) {
             String dump = ((IOPlayer) this.subject).getDump();
@@ -190,6 +132,8 @@ public class ScenarioRunner extends AbstractRunner implements Runnable, Reportab
         JSONObject result = new JSONObject();
         result.put("status", status);
         result.put("subject", subjectResult);
+        result.put("actions", this.playback.getActionResults());
+        result.put("percentiles", this.playback.getPercentileResults());
 
         return result;
     }
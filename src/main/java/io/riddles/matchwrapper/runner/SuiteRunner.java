@@ -0,0 +1,289 @@
+// Copyright 2016 riddles.io (developers@riddles.io)
+
+//    Licensed under the Apache License, Version 2.0 (the "License");
+//    you may not use this file except in compliance with the License.
+//    You may obtain a copy of the License at
+
+//        http://www.apache.org/licenses/LICENSE-2.0
+
+//    Unless required by applicable law or agreed to in writing, software
+//    distributed under the License is distributed on an "AS IS" BASIS,
+//    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+//    See the License for the specific language governing permissions and
+//    limitations under the License.
+//
+//    For the full copyright and license information, please view the LICENSE
+//    file that was distributed with this source code.
+
+package io.riddles.matchwrapper.runner;
+
+import io.riddles.matchwrapper.MatchContext;
+import io.riddles.matchwrapper.io.IOPlayer;
+import io.riddles.matchwrapper.io.IOWrapper;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+/**
+ * SuiteRunner class
+ *
+ * Feeds many scenarios to multiple instances of the same subject at the
+ * same time. Every instance has a thread that takes the next scenario that
+ * no instance has started yet, so faster instances play more scenarios.
+ * A bot with a reset command is reset and reused after a scenario it
+ * passed, otherwise, and after every failed scenario, a new instance is
+ * started for the next scenario.
+ *
+ * @author Jim van Eeden <jim@riddles.io>
+ */
+public class SuiteRunner extends AbstractRunner implements Runnable, Reportable {
+
+    private JSONObject subjectConfig;
+    private String resetCommand; // command to reset a bot between scenarios, null to restart it
+    private int instances;
+    private String[] names;
+    private JSONArray[] scenarios;
+    private Pattern[][] expectations;
+    private String[] scenarioErrors; // error in a scenario itself, null if it's valid
+    private long[] p95Budgets;
+    private JSONObject[] scenarioResults;
+    private AtomicInteger nextScenario;
+    private AtomicInteger starts;
+    private AtomicInteger restarts;
+    private long wallTime;
+
+    public SuiteRunner(MatchContext context) {
+        super(context);
+    }
+
+    /**
+     * Config looks as follows:
+     * {
+     *     subject: {
+     *         command: String,
+     *         type: "bot" or "engine",
+     *         resetCommand: String (optional, bots only)
+     *     },
+     *     instances: Integer (optional, the number of cores by default),
+     *     p95Budget: Long (optional, default for all scenarios),
+     *     scenarios: [
+     *         {
+     *             name: String,
+     *             scenario: [String or Object],
+     *             p95Budget: Long (optional)
+     *         }
+     *     ]
+     * }
+     * @param config Suite configuration
+     */
+    @Override
+    public void prepare(JSONObject config) {
+        this.subjectConfig = config.getJSONObject("subject");
+        this.instances = config.optInt("instances", Runtime.getRuntime().availableProcessors());
+
+        if (this.subjectConfig.getString("type").equals("bot")) {
+            this.resetCommand = this.subjectConfig.optString("resetCommand", null);
+        }
+
+        JSONArray suite = config.getJSONArray("scenarios");
+        this.names = new String[suite.length()];
+        this.scenarios = new JSONArray[suite.length()];
+        this.p95Budgets = new long[suite.length()];
+        this.expectations = new Pattern[suite.length()][];
+        this.scenarioErrors = new String[suite.length()];
+        this.scenarioResults = new JSONObject[suite.length()];
+        long p95Budget = config.optLong("p95Budget", 0);
+
+        for (int i = 0; i < suite.length(); i++) {
+            JSONObject scenario = suite.optJSONObject(i);
+
+            if (scenario != null) {
+                this.names[i] = scenario.optString("name", String.valueOf(i));
+                this.scenarios[i] = scenario.getJSONArray("scenario");
+                this.p95Budgets[i] = scenario.optLong("p95Budget", p95Budget);
+            } else {
+                this.names[i] = String.valueOf(i);
+                this.scenarios[i] = suite.getJSONArray(i);
+                this.p95Budgets[i] = p95Budget;
+            }
+
+            try {
+                this.expectations[i] = ScenarioPlayback.compileExpectations(this.scenarios[i]);
+            } catch (IOException ex) {
+                this.scenarioErrors[i] = ex.getMessage();
+            }
+        }
+
+        this.nextScenario = new AtomicInteger();
+        this.starts = new AtomicInteger();
+        this.restarts = new AtomicInteger();
+    }
+
+    @Override
+    public void run() {
+        long startTime = System.nanoTime();
+        int threadCount = Math.max(1, Math.min(this.instances, this.scenarios.length));
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+
+        try {
+            List<Future<?>> workers = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                int instance = i;
+                workers.add(executor.submit(() -> playScenarios(instance)));
+            }
+
+            for (Future<?> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while playing the suite", ex);
+        } catch (ExecutionException ex) {
+            throw new RuntimeException("Playing the suite failed", ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        this.wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        setResults(createSuiteResult());
+    }
+
+    @Override
+    public int postrun(long timeElapsed) {
+        return 0;
+    }
+
+    @Override
+    public void abort() {
+        // every instance is shut down by the thread that plays on it
+    }
+
+    /**
+     * Plays scenarios on one instance of the subject until
+     * all scenarios are started
+     * @param instance Index of the instance
+     */
+    private void playScenarios(int instance) {
+        IOWrapper subject = null;
+        int index;
+
+        try {
+            while ((index = this.nextScenario.getAndIncrement()) < this.scenarios.length) {
+                long scenarioStart = System.nanoTime();
+                JSONObject result = new JSONObject();
+                result.put("name", this.names[index]);
+                result.put("instance", instance);
+
+                // a scenario that can't be played doesn't say anything about the instance
+                if (this.scenarioErrors[index] != null) {
+                    result.put("status", "error");
+                    result.put("error", new JSONObject().put("message", this.scenarioErrors[index]));
+                    result.put("timeElapsed", 0);
+                    this.scenarioResults[index] = result;
+                    continue;
+                }
+
+                boolean passed = false;
+                ScenarioPlayback playback = null;
+                try {
+                    if (subject == null) {
+                        subject = createSubject(this.subjectConfig);
+                        this.starts.incrementAndGet();
+                    }
+
+                    playback = new ScenarioPlayback(subject, this.scenarios[index], this.expectations[index],
+                            this.p95Budgets[index]);
+                    playback.play();
+                    result.put("status", "ok");
+                    passed = true;
+                } catch (IOException | RuntimeException exception) {
+                    result.put("status", "error");
+                    result.put("error", new JSONObject().put("message", String.valueOf(exception.getMessage())));
+                }
+
+                if (playback != null) {
+                    result.put("actions", playback.getActionResults());
+                    result.put("percentiles", playback.getPercentileResults());
+                }
+
+                if (subject != null) {
+                    if (subject instanceof IOPlayer) {
+                        result.put("log", ((IOPlayer) subject).getDump());
+                        ((IOPlayer) subject).clearDump();
+                    }
+
+                    if (!passed) {
+                        result.put("errors", subject.getStderr());
+                        this.restarts.incrementAndGet();
+                    }
+
+                    if (!passed || !resetSubject(subject)) {
+                        subject.finish();
+                        subject = null;
+                    }
+                }
+
+                result.put("timeElapsed", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - scenarioStart));
+                this.scenarioResults[index] = result;
+            }
+        } finally {
+            // also when playing fails unexpectedly, so the instance doesn't outlive the suite
+            if (subject != null) {
+                subject.finish();
+            }
+        }
+    }
+
+    /**
+     * Resets the subject for the next scenario, if it supports a reset
+     * @param subject The subject that passed a scenario
+     * @return True if the subject can be used for the next scenario
+     */
+    private boolean resetSubject(IOWrapper subject) {
+        if (this.resetCommand == null) {
+            return false;
+        }
+
+        ((IOPlayer) subject).setReusable(null, this.resetCommand);
+        return ((IOPlayer) subject).reset(this.context.getBotPoolResetTimeout());
+    }
+
+    private JSONObject createSuiteResult() {
+        JSONArray results = new JSONArray();
+        int passed = 0;
+
+        for (JSONObject result : this.scenarioResults) {
+            results.put(result);
+
+            if (result.getString("status").equals("ok")) {
+                passed++;
+            }
+        }
+
+        JSONObject suite = new JSONObject();
+        suite.put("scenarios", this.scenarioResults.length);
+        suite.put("passed", passed);
+        suite.put("failed", this.scenarioResults.length - passed);
+        suite.put("instances", Math.min(this.instances, this.scenarioResults.length));
+        suite.put("starts", this.starts.get());
+        suite.put("restarts", this.restarts.get());
+        suite.put("wallTime", this.wallTime);
+
+        JSONObject output = new JSONObject();
+        output.put("status", passed == this.scenarioResults.length ? "ok" : "error");
+        output.put("suite", suite);
+        output.put("results", results);
+
+        return output;
+    }
+}
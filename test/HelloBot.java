@@ -0,0 +1,34 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+
+// Java version of hello_bot.py. It runs as a process or in the wrapper's
+// JVM as an in-JVM bot:
+//   javac -d build/hello test/HelloBot.java && jar cf hello_bot.jar -C build/hello .
+//   process: "command": "java -cp hello_bot.jar HelloBot"
+//   in-JVM:  "jar": "hello_bot.jar", "class": "HelloBot"
+public class HelloBot {
+
+    public static void main(String[] args) throws IOException {
+        BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+
+        String line;
+        while ((line = input.readLine()) != null) {
+            String[] parts = line.trim().split(" ");
+            System.err.println("bot received: " + line);
+
+            switch (parts[0]) {
+                case "hello":
+                case "action":
+                    System.out.println("hello back");
+                    break;
+                case "reset":
+                case "ping":
+                    System.out.println("ok");
+                    break;
+                default:
+                    break;
+            }
+        }
+    }
+}
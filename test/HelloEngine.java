@@ -0,0 +1,87 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Java version of hello_engine.py, playing a number of rounds in which bot 0
+// is sent a state and asked a move. It runs as a process, or in the wrapper's
+// JVM as an in-process engine:
+//   javac -d build/hello test/HelloEngine.java && jar cf hello_engine.jar -C build/hello .
+//   process:    "command": "java -cp hello_engine.jar HelloEngine"
+//   in-process: "jar": "hello_engine.jar", "class": "HelloEngine"
+// The configuration can contain the number of rounds, like {"rounds": 100}.
+public class HelloEngine implements Consumer<String> {
+
+    private static final Pattern ROUNDS = Pattern.compile("\"rounds\"\\s*:\\s*(\\d+)");
+
+    private final Consumer<String> output;
+    private int rounds = 1;
+    private int round = 0;
+    private Integer winner = null;
+
+    public HelloEngine(Consumer<String> output) {
+        this.output = output;
+    }
+
+    public static void main(String[] args) throws IOException {
+        BufferedReader input = new BufferedReader(new InputStreamReader(System.in));
+        HelloEngine engine = new HelloEngine(line -> {
+            System.out.println(line);
+            System.out.flush();
+        });
+
+        String line;
+        while ((line = input.readLine()) != null) {
+            engine.accept(line.trim());
+        }
+    }
+
+    @Override
+    public void accept(String message) {
+        String[] parts = message.split(" ", 2);
+
+        switch (parts[0]) {
+            case "initialize":
+                this.output.accept("ok");
+                break;
+            case "configuration":
+                Matcher matcher = ROUNDS.matcher(message);
+                if (matcher.find()) {
+                    this.rounds = Integer.parseInt(matcher.group(1));
+                }
+                break;
+            case "start":
+                playRound();
+                break;
+            case "bot":
+                if (message.startsWith("bot 0 ")) {
+                    this.winner = 0;
+                    playRound();
+                }
+                break;
+            case "details":
+                this.output.accept(String.format("winner %s round %d", this.winner, this.round));
+                break;
+            case "game":
+                this.output.accept(String.format("{\"winner\": %s}", this.winner));
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void playRound() {
+        if (this.round >= this.rounds) {
+            this.output.accept("end");
+            return;
+        }
+
+        this.round++;
+        this.output.accept("bot all send settings timebank 1000");
+        this.output.accept(String.format("bot 0 send update game round %d", this.round));
+        this.output.accept("bot 0 send update game field 0,0,0,1");
+        this.output.accept("bot 0 ask hello");
+    }
+}
@@ -0,0 +1,43 @@
+#!/usr/bin/env python3
+
+# Sends jobs to a match wrapper running with --daemon and prints the replies.
+# Usage: daemon_client.py [port] [token file] < jobs
+# Every line of the input is a job (a wrapper config) or a command like
+# {"command": "status"}. The daemon's token is added to every line.
+# Replies are printed as they come, one line each.
+
+import json
+import os
+import socket
+import sys
+import threading
+
+port = int(sys.argv[1]) if len(sys.argv) > 1 else 7650
+token_file = sys.argv[2] if len(sys.argv) > 2 else os.path.join(
+    os.path.expanduser('~'), '.match-wrapper', 'daemon-{}.token'.format(port))
+
+with open(token_file) as f:
+    token = f.read().strip()
+
+def print_replies(connection):
+    for line in connection.makefile('r', encoding='utf-8'):
+        sys.stdout.write(line)
+        sys.stdout.flush()
+
+def run():
+    connection = socket.create_connection(('127.0.0.1', port))
+    reader = threading.Thread(target=print_replies, args=(connection,))
+    reader.start()
+
+    for line in sys.stdin:
+        if line.strip():
+            job = json.loads(line)
+            job['token'] = token
+            connection.sendall((json.dumps(job) + '\n').encode('utf-8'))
+
+    connection.shutdown(socket.SHUT_WR)
+    reader.join()
+    connection.close()
+
+if __name__ == '__main__':
+    run()
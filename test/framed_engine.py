@@ -0,0 +1,96 @@
+#!/usr/bin/env python3
+
+# Stand-in engine that broadcasts a large state to all bots every round.
+# It accepts framing when the wrapper offers it, unless started with --lines.
+# Usage: framed_engine.py [rounds] [state size in bytes] [--lines]
+
+import struct
+import sys
+
+HEADER = struct.Struct('>biI')
+TEXT, SEND, ASK, WARNING = 0, 1, 2, 3
+ALL_BOTS = -1
+
+args = [arg for arg in sys.argv[1:] if not arg.startswith('--')]
+rounds = int(args[0]) if len(args) > 0 else 100
+state_size = int(args[1]) if len(args) > 1 else 100000
+accept_framing = '--lines' not in sys.argv
+
+stdin = sys.stdin.buffer
+stdout = sys.stdout.buffer
+framed = False
+roundnr = 0
+
+def run():
+    while True:
+        message = read_message()
+        if message is None:
+            err('EOF')
+            return
+        handle_message(message)
+
+def read_message():
+    if not framed:
+        line = stdin.readline()
+        return line.decode().strip() if line else None
+
+    header = stdin.read(HEADER.size)
+    if len(header) < HEADER.size:
+        return None
+
+    _, _, size = HEADER.unpack(header)
+    return stdin.read(size).decode()
+
+def handle_message(message):
+    parts = message.split()
+
+    if not parts:
+        return err('Unable to parse line (empty)')
+
+    message_type = parts[0]
+
+    if message_type == 'initialize':
+        initialize(parts[1:])
+    elif message_type == 'start' or message_type == 'bot':
+        play_round()
+    elif message_type == 'details':
+        out(TEXT, ALL_BOTS, 'winner 0 round {}'.format(roundnr))
+    elif message_type == 'game':
+        out(TEXT, ALL_BOTS, '{{"rounds": {}}}'.format(roundnr))
+
+def initialize(args):
+    global framed
+    if 'framed' in args and accept_framing:
+        out(TEXT, ALL_BOTS, 'ok framed')
+        framed = True
+    else:
+        out(TEXT, ALL_BOTS, 'ok')
+
+def play_round():
+    global roundnr
+    if roundnr >= rounds:
+        return out(TEXT, ALL_BOTS, 'end')
+
+    roundnr = roundnr + 1
+    state = str(roundnr % 10) * state_size
+    out(SEND, ALL_BOTS, 'update game field ' + state)
+    out(ASK, 0, 'hello')
+
+def out(frame_type, bot_id, payload):
+    if not framed:
+        verbs = {SEND: 'send', ASK: 'ask', WARNING: 'warning'}
+        if frame_type != TEXT:
+            target = 'all' if bot_id == ALL_BOTS else str(bot_id)
+            payload = 'bot {} {} {}'.format(target, verbs[frame_type], payload)
+        stdout.write(payload.encode() + b'\n')
+    else:
+        data = payload.encode()
+        stdout.write(HEADER.pack(frame_type, bot_id, len(data)) + data)
+    stdout.flush()
+
+def err(message):
+    sys.stderr.write(message + '\n')
+    sys.stderr.flush()
+
+if __name__ == '__main__':
+    run()
@@ -19,6 +19,8 @@ def handle_message(message):
         sys.stderr.write("Unable to parse line (empty)\n")
     elif parts[0] == 'hello':
         out('hello back')
+    elif parts[0] == 'reset':
+        out('ok')
     else:
         sys.stderr.write("Unable to parse line\n") 
 